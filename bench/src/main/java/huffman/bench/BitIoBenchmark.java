@@ -0,0 +1,95 @@
+package huffman.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import huffman.BitReader;
+import huffman.BitWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading and writing whole bytes through {@link BitReader} and {@link BitWriter}, both on
+ * byte boundaries and a bit off them.
+ *
+ * @author Jacob Gordon
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BitIoBenchmark {
+
+    private ByteBuffer source;
+    private ByteBuffer target;
+
+    @Setup
+    public void setup(InputState input) {
+        source = ByteBuffer.wrap(input.data);
+        target = ByteBuffer.allocate(input.size + 8);
+    }
+
+
+    @Benchmark
+    public int readByte(InputState input, Bytes bytes) {
+        bytes.bytes += input.size;
+        BitReader in = new BitReader(source);
+        int sum = 0;
+        for (int i = 0; i < input.size; i++) {
+            sum += in.readByte();
+        }
+        return sum;
+    }
+
+
+    @Benchmark
+    public int readByteUnaligned(InputState input, Bytes bytes) {
+        bytes.bytes += input.size;
+        BitReader in = new BitReader(source);
+        int sum = in.readAsInt();
+        for (int i = 1; i < input.size; i++) {
+            sum += in.readByte();
+        }
+        return sum;
+    }
+
+
+    @Benchmark
+    public ByteBuffer writeByte(InputState input, Bytes bytes) throws IOException {
+        bytes.bytes += input.size;
+        target.clear();
+        BitWriter out = new BitWriter(target);
+        byte[] data = input.data;
+        for (int i = 0; i < data.length; i++) {
+            out.writeByte(data[i]);
+        }
+        out.flush();
+        return target;
+    }
+
+
+    @Benchmark
+    public ByteBuffer writeByteUnaligned(InputState input, Bytes bytes) throws IOException {
+        bytes.bytes += input.size;
+        target.clear();
+        BitWriter out = new BitWriter(target);
+        out.write(1);
+        byte[] data = input.data;
+        for (int i = 1; i < data.length; i++) {
+            out.writeByte(data[i]);
+        }
+        out.flush();
+        return target;
+    }
+}
@@ -0,0 +1,29 @@
+package huffman.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the uncompressed bytes each benchmark gets through. JMH reports the count as a rate
+ * in the benchmark's time unit; the benchmarks all use microseconds, and bytes per
+ * microsecond are MB/s.
+ *
+ * @author Jacob Gordon
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Bytes {
+
+    /**
+     * Bytes processed in this iteration.
+     */
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void clear() {
+        bytes = 0;
+    }
+}
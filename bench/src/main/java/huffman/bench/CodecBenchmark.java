@@ -0,0 +1,136 @@
+package huffman.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import huffman.BitReader;
+import huffman.BitWriter;
+import huffman.CanonicalCode;
+import huffman.Huffman;
+import huffman.TableDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Encoding and decoding with a tree built beforehand: through the tree itself, as
+ * {@link Huffman#encode(byte[], BitWriter)} and
+ * {@link Huffman#decode(long, BitReader, OutputStream)} do, and through the canonical code
+ * the file formats use.
+ *
+ * @author Jacob Gordon
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    private Huffman tree;
+    private CanonicalCode code;
+    private TableDecoder decoder;
+
+    /**
+     * The input encoded with the tree, and with the canonical code.
+     */
+    private byte[] treeEncoded;
+    private byte[] codeEncoded;
+
+    /**
+     * Where encoded bits go.
+     */
+    private ByteBuffer encoded;
+
+    /**
+     * Where decoded bytes go.
+     */
+    private byte[] decoded;
+
+    @Setup
+    public void setup(InputState input) throws IOException {
+        tree = new Huffman(input.data);
+        code = tree.getCanonicalCode();
+        decoder = code.newDecoder();
+        // a code is never longer than 32 bits a byte, plus room for the padding
+        encoded = ByteBuffer.allocate(4 * input.size + 8);
+        decoded = new byte[input.size];
+        treeEncoded = copy(encodeTree(input.data));
+        codeEncoded = copy(encodeCanonical(input.data));
+    }
+
+
+    @Benchmark
+    public ByteBuffer encodeTree(InputState input, Bytes bytes) throws IOException {
+        bytes.bytes += input.size;
+        return encodeTree(input.data);
+    }
+
+
+    @Benchmark
+    public ByteBuffer encodeCanonical(InputState input, Bytes bytes) throws IOException {
+        bytes.bytes += input.size;
+        return encodeCanonical(input.data);
+    }
+
+
+    @Benchmark
+    public void decodeTree(InputState input, Bytes bytes, final Blackhole blackhole) throws IOException {
+        bytes.bytes += input.size;
+        tree.decode(input.size, new BitReader(ByteBuffer.wrap(treeEncoded)), new OutputStream() {
+            @Override
+            public void write(int b) {
+                blackhole.consume(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                blackhole.consume(b);
+            }
+        });
+    }
+
+
+    @Benchmark
+    public byte[] decodeCanonical(InputState input, Bytes bytes) throws IOException {
+        bytes.bytes += input.size;
+        decoder.decode(new BitReader(ByteBuffer.wrap(codeEncoded)), decoded, 0, input.size);
+        return decoded;
+    }
+
+
+    private ByteBuffer encodeTree(byte[] data) throws IOException {
+        encoded.clear();
+        BitWriter out = new BitWriter(encoded);
+        tree.encode(data, out);
+        out.flush();
+        return encoded;
+    }
+
+
+    private ByteBuffer encodeCanonical(byte[] data) throws IOException {
+        encoded.clear();
+        BitWriter out = new BitWriter(encoded);
+        code.encode(data, 0, data.length, out);
+        out.flush();
+        return encoded;
+    }
+
+
+    private static byte[] copy(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.position()];
+        System.arraycopy(buffer.array(), 0, bytes, 0, bytes.length);
+        return bytes;
+    }
+}
@@ -0,0 +1,62 @@
+package huffman.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import huffman.Huffman;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end {@link Huffman#compress(java.io.InputStream, java.io.OutputStream)} and
+ * {@link Huffman#decompress(java.io.InputStream, java.io.OutputStream)}, in memory, so that
+ * disk speed does not come into it.
+ *
+ * @author Jacob Gordon
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressBenchmark {
+
+    private byte[] compressed;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setup(InputState input) throws IOException {
+        out = new ByteArrayOutputStream(2 * input.size + 1024);
+        Huffman.compress(new ByteArrayInputStream(input.data), out);
+        compressed = out.toByteArray();
+    }
+
+
+    @Benchmark
+    public ByteArrayOutputStream compress(InputState input, Bytes bytes) throws IOException {
+        bytes.bytes += input.size;
+        out.reset();
+        Huffman.compress(new ByteArrayInputStream(input.data), out);
+        return out;
+    }
+
+
+    @Benchmark
+    public ByteArrayOutputStream decompress(InputState input, Bytes bytes) throws IOException {
+        bytes.bytes += input.size;
+        out.reset();
+        Huffman.decompress(new ByteArrayInputStream(compressed), out);
+        return out;
+    }
+}
@@ -0,0 +1,444 @@
+package huffman.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Generates synthetic data of a known shape and entropy, for benchmarks and for scaling
+ * tests too large to keep sample files for.
+ *
+ * <p>Each {@link Shape} is a distribution over the 256 byte values, and the same shape and
+ * seed always give the same bytes, at any size. Bytes are drawn independently, except in
+ * {@link Shape#RUNS}, so {@link #getEntropy()} is a bound on how small any code for single
+ * bytes, Huffman's included, can make the data: about size * entropy / 8 bytes. The
+ * distribution is quantized to a table of {@link #TABLE_SIZE} entries before anything is
+ * drawn from it, and the entropy is worked out from that table, so it is exact for the data
+ * actually generated rather than for the ideal the shape describes.</p>
+ *
+ * <p>As a program, writes a file of each shape into a directory, with an entropy.csv
+ * report beside them:
+ * <pre>
+ * java -cp bench/target/benchmarks.jar huffman.bench.Corpus &lt;dir&gt; &lt;size&gt; [seed] [shapes...]
+ * </pre>
+ * Sizes may end in K, M or G, and files are written a buffer at a time, so there is no
+ * limit on how large they can be.</p>
+ *
+ * @author Jacob Gordon
+ */
+public final class Corpus {
+
+    /**
+     * The shapes of data there are.
+     */
+    public enum Shape {
+        /**
+         * Near-uniform bytes, as in compressed or encrypted data and machine code: every
+         * value equally likely except 0, which is four times as likely. Just under 8 bits
+         * a byte; nothing can be saved.
+         */
+        BINARY,
+
+        /**
+         * Text-like: 64 printable characters in order of their frequency in English, with
+         * Zipfian probabilities (the k-th most common 1/k as likely as the most common).
+         * About 4.9 bits a byte.
+         */
+        TEXT,
+
+        /**
+         * Runs of a single value, 32 bytes long on average, each run's value drawn from the
+         * TEXT distribution over 16 characters. The entropy given is that of the values
+         * taken one at a time, which is what a Huffman code can reach; the runs themselves
+         * would let other methods do far better. About 3.4 bits a byte.
+         */
+        RUNS,
+
+        /**
+         * Every byte the same: the tree has one real leaf and a dummy leaf, and each byte
+         * takes a bit. 0 bits a byte.
+         */
+        SINGLE,
+
+        /**
+         * Two values, one nine times as likely as the other: the smallest tree there is.
+         * About 0.47 bits a byte, though Huffman can do no better than one.
+         */
+        TWO,
+
+        /**
+         * All 256 values, with probabilities falling geometrically from the first to the
+         * last and a small floor under them, so the tree is deep: by a megabyte every value
+         * has turned up and the longest codes are some 18 bits, well past the
+         * {@link huffman.TableDecoder#PRIMARY_BITS} a single table lookup covers. About 4.7
+         * bits a byte.
+         */
+        DEEP
+    }
+
+    /**
+     * Bits in the table the distribution is quantized to.
+     */
+    public static final int TABLE_BITS = 20;
+
+    /**
+     * Entries in the table the distribution is quantized to, so the least likely value has
+     * a probability of 1 in this.
+     */
+    public static final int TABLE_SIZE = 1 << TABLE_BITS;
+
+    /**
+     * Average length of a run in {@link Shape#RUNS}.
+     */
+    private static final int MEAN_RUN = 32;
+
+    /**
+     * Printable ASCII, most common in English first.
+     */
+    private static final String TEXT_ORDER =
+            " etaoinshrdlcumwfgypbvkjxqzETAOINSHRDLCUMWFGYPBVKJXQZ.,\n'\"-?!:;()0";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Shape shape;
+    private final long seed;
+    private final SplittableRandom random;
+
+    /**
+     * The byte value for each table entry.
+     */
+    private final byte[] table = new byte[TABLE_SIZE];
+
+    /**
+     * Table entries of each byte value.
+     */
+    private final int[] counts = new int[256];
+
+    /**
+     * The value and bytes left of the current run, for {@link Shape#RUNS}.
+     */
+    private byte runValue;
+    private long runLeft;
+
+
+    /**
+     * Creates a generator.
+     *
+     * @param shape the shape of the data.
+     * @param seed the seed; the same shape and seed give the same data.
+     */
+    public Corpus(Shape shape, long seed) {
+        this.shape = shape;
+        this.seed = seed;
+        this.random = new SplittableRandom(seed);
+        quantize(weights(shape));
+    }
+
+
+    /**
+     * Returns the shape of the data.
+     *
+     * @return the shape.
+     */
+    public Shape getShape() {
+        return shape;
+    }
+
+
+    /**
+     * Returns the seed.
+     *
+     * @return the seed the data is drawn from.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+
+    /**
+     * Returns the probability of each byte value.
+     *
+     * @return the probabilities, indexed by the byte's unsigned value.
+     */
+    public double[] getProbabilities() {
+        double[] probabilities = new double[256];
+        for (int s = 0; s < 256; s++) {
+            probabilities[s] = (double) counts[s] / TABLE_SIZE;
+        }
+        return probabilities;
+    }
+
+
+    /**
+     * Returns the entropy of the byte values, taken one at a time.
+     *
+     * @return the entropy in bits a byte.
+     */
+    public double getEntropy() {
+        return entropy(getProbabilities());
+    }
+
+
+    /**
+     * Returns the fewest bytes a code for single bytes can encode the given number of
+     * bytes of this data in, on average.
+     *
+     * @param size the number of bytes.
+     * @return the entropy bound in bytes.
+     */
+    public double getBound(long size) {
+        return size * getEntropy() / 8;
+    }
+
+
+    /**
+     * Returns the next bytes of data.
+     *
+     * @param size the number of bytes.
+     * @return the data.
+     */
+    public byte[] generate(int size) {
+        byte[] data = new byte[size];
+        generate(data, 0, size);
+        return data;
+    }
+
+
+    /**
+     * Fills part of an array with the next bytes of data.
+     *
+     * @param dst the array to fill.
+     * @param off index of the first byte to fill.
+     * @param len number of bytes to fill.
+     */
+    public void generate(byte[] dst, int off, int len) {
+        int end = off + len;
+        if (shape == Shape.RUNS) {
+            for (int i = off; i < end; ) {
+                if (runLeft == 0) {
+                    runValue = draw();
+                    // geometric, 1 or more
+                    runLeft = 1 + (long) (Math.log(1 - random.nextDouble()) / Math.log(1 - 1.0 / MEAN_RUN));
+                }
+                int n = (int) Math.min(runLeft, end - i);
+                for (int j = 0; j < n; j++) {
+                    dst[i + j] = runValue;
+                }
+                i += n;
+                runLeft -= n;
+            }
+        } else {
+            for (int i = off; i < end; i++) {
+                dst[i] = draw();
+            }
+        }
+    }
+
+
+    /**
+     * Writes the next bytes of data to a stream, a buffer at a time.
+     *
+     * @param out the stream.
+     * @param size the number of bytes.
+     * @throws IOException If the stream cannot be written.
+     */
+    public void write(OutputStream out, long size) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(size, 1))];
+        for (long left = size; left > 0; ) {
+            int n = (int) Math.min(buffer.length, left);
+            generate(buffer, 0, n);
+            out.write(buffer, 0, n);
+            left -= n;
+        }
+    }
+
+
+    /**
+     * Returns the entropy of a distribution.
+     *
+     * @param probabilities the probability of each value; they must add up to 1.
+     * @return the entropy in bits.
+     */
+    public static double entropy(double[] probabilities) {
+        double bits = 0;
+        for (double p : probabilities) {
+            if (p > 0) {
+                bits -= p * Math.log(p) / Math.log(2);
+            }
+        }
+        return bits;
+    }
+
+
+    /**
+     * Returns the entropy of the values in some data, taken one at a time.
+     *
+     * @param counts the number of times each value occurs.
+     * @return the entropy in bits a value.
+     */
+    public static double entropy(long[] counts) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        double[] probabilities = new double[counts.length];
+        for (int s = 0; s < counts.length && total > 0; s++) {
+            probabilities[s] = (double) counts[s] / total;
+        }
+        return entropy(probabilities);
+    }
+
+
+    private byte draw() {
+        return table[random.nextInt() & (TABLE_SIZE - 1)];
+    }
+
+
+    /**
+     * Returns the relative likelihood of each byte value in a shape.
+     *
+     * @param shape the shape.
+     * @return a weight for each value; they need not add up to anything.
+     */
+    private static double[] weights(Shape shape) {
+        double[] weights = new double[256];
+        switch (shape) {
+        case BINARY:
+            Arrays.fill(weights, 1);
+            weights[0] = 4;
+            break;
+        case TEXT:
+            zipf(weights, 64);
+            break;
+        case RUNS:
+            zipf(weights, 16);
+            break;
+        case SINGLE:
+            weights['a'] = 1;
+            break;
+        case TWO:
+            weights['a'] = 9;
+            weights['b'] = 1;
+            break;
+        case DEEP:
+            for (int s = 0; s < 256; s++) {
+                weights[s] = Math.pow(0.9, s) + 1e-4;
+            }
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown shape " + shape);
+        }
+        return weights;
+    }
+
+
+    private static void zipf(double[] weights, int n) {
+        for (int k = 0; k < n; k++) {
+            weights[TEXT_ORDER.charAt(k)] = 1.0 / (k + 1);
+        }
+    }
+
+
+    /**
+     * Fills the table with each value in proportion to its weight, giving every value with
+     * a weight at least one entry.
+     *
+     * @param weights the weight of each value.
+     */
+    private void quantize(double[] weights) {
+        double total = 0;
+        int present = 0;
+        for (double weight : weights) {
+            total += weight;
+            present += weight > 0 ? 1 : 0;
+        }
+        int given = 0;
+        int largest = 0;
+        for (int s = 0; s < 256; s++) {
+            if (weights[s] > 0) {
+                counts[s] = Math.max(1, (int) (weights[s] / total * (TABLE_SIZE - present)));
+                given += counts[s];
+                if (counts[s] > counts[largest]) {
+                    largest = s;
+                }
+            }
+        }
+        // rounding leftovers go to the most likely value
+        counts[largest] += TABLE_SIZE - given;
+        int i = 0;
+        for (int s = 0; s < 256; s++) {
+            for (int c = 0; c < counts[s]; c++) {
+                table[i++] = (byte) s;
+            }
+        }
+    }
+
+
+    /**
+     * Writes a file of each shape, and a report of their entropies.
+     *
+     * @param args the directory, the size, and optionally the seed and the shapes.
+     * @throws IOException If the files cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: huffman.bench.Corpus <dir> <size>[K|M|G] [seed] [shapes...]");
+            System.exit(2);
+        }
+        Path dir = Paths.get(args[0]);
+        long size = parseSize(args[1]);
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        List<Shape> shapes = new ArrayList<Shape>();
+        for (int i = 3; i < args.length; i++) {
+            shapes.add(Shape.valueOf(args[i].toUpperCase(Locale.ROOT)));
+        }
+        if (shapes.isEmpty()) {
+            shapes.addAll(Arrays.asList(Shape.values()));
+        }
+
+        Files.createDirectories(dir);
+        try (BufferedWriter report = Files.newBufferedWriter(dir.resolve("entropy.csv"), StandardCharsets.UTF_8)) {
+            report.write("file,shape,seed,bytes,entropy_bits_per_byte,bound_bytes");
+            report.newLine();
+            for (Shape shape : shapes) {
+                Corpus corpus = new Corpus(shape, seed);
+                String name = shape.name().toLowerCase(Locale.ROOT) + "-" + args[1] + ".bin";
+                try (OutputStream out = Files.newOutputStream(dir.resolve(name))) {
+                    corpus.write(out, size);
+                }
+                String line = String.format(Locale.ROOT, "%s,%s,%d,%d,%.6f,%.0f", name, shape, seed, size,
+                        corpus.getEntropy(), Math.ceil(corpus.getBound(size)));
+                report.write(line);
+                report.newLine();
+                System.out.println(line);
+            }
+        }
+    }
+
+
+    /**
+     * Reads a size such as 4096, 64K, 10M or 2G.
+     *
+     * @param size the size.
+     * @return the number of bytes.
+     */
+    static long parseSize(String size) {
+        String digits = size.toUpperCase(Locale.ROOT);
+        long unit = 1;
+        char last = digits.charAt(digits.length() - 1);
+        if (last == 'K' || last == 'M' || last == 'G') {
+            unit = last == 'K' ? 1L << 10 : last == 'M' ? 1L << 20 : 1L << 30;
+            digits = digits.substring(0, digits.length() - 1);
+        }
+        return Long.parseLong(digits) * unit;
+    }
+}
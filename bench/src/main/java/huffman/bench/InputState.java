@@ -0,0 +1,33 @@
+package huffman.bench;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The input each benchmark runs on, from {@link Inputs}, for every source and size.
+ *
+ * @author Jacob Gordon
+ */
+@State(Scope.Benchmark)
+public class InputState {
+
+    @Param({"ok", "binary", "text", "runs", "single", "two", "deep"})
+    public String source;
+
+    @Param({"4096", "262144", "4194304"})
+    public int size;
+
+    /**
+     * The input.
+     */
+    public byte[] data;
+
+    @Setup
+    public void load() throws IOException {
+        data = Inputs.load(source, size);
+    }
+}
@@ -0,0 +1,65 @@
+package huffman.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * The data the benchmarks run on.
+ *
+ * <ul>
+ * <li>{@code ok}: the bundled src/Ok JavaScript sample, repeated or cut to the size wanted.
+ * Found through the {@code huffman.bench.ok} system property, or else in ../src/Ok or
+ * src/Ok.
+ * <li>the name of any {@link Corpus.Shape}, in lower case: synthetic data of that shape.
+ * </ul>
+ * Synthetic data comes from a fixed seed, so every run sees the same bytes.
+ *
+ * @author Jacob Gordon
+ */
+final class Inputs {
+
+    private static final long SEED = 42;
+
+    private Inputs() {
+        // static methods only
+    }
+
+
+    /**
+     * Returns input data.
+     *
+     * @param source ok, or a corpus shape.
+     * @param size the number of bytes.
+     * @return the data.
+     * @throws IOException If the sample cannot be read.
+     */
+    static byte[] load(String source, int size) throws IOException {
+        if (!source.equals("ok")) {
+            return new Corpus(Corpus.Shape.valueOf(source.toUpperCase(Locale.ROOT)), SEED).generate(size);
+        }
+        byte[] data = new byte[size];
+        byte[] sample = Files.readAllBytes(findSample());
+        for (int i = 0; i < size; i += sample.length) {
+            System.arraycopy(sample, 0, data, i, Math.min(sample.length, size - i));
+        }
+        return data;
+    }
+
+
+    private static Path findSample() throws IOException {
+        String property = System.getProperty("huffman.bench.ok");
+        if (property != null) {
+            return Paths.get(property);
+        }
+        for (String candidate : new String[] {"../src/Ok", "src/Ok"}) {
+            Path path = Paths.get(candidate);
+            if (Files.isRegularFile(path)) {
+                return path;
+            }
+        }
+        throw new IOException("Cannot find src/Ok; set -Dhuffman.bench.ok=<path>");
+    }
+}
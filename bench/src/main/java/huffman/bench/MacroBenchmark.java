@@ -0,0 +1,454 @@
+package huffman.bench;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import huffman.AdaptiveHuffman;
+import huffman.Huffman;
+
+/**
+ * Compresses every file of a directory with each codec, for the comparison with
+ * java.util.zip that JMH's small, in-memory runs cannot give:
+ * <pre>
+ * java -cp bench/target/benchmarks.jar huffman.bench.MacroBenchmark &lt;dir&gt; [-json] [-o file] [-r repeats] [-t types]
+ * </pre>
+ *
+ * <p>The codecs are {@link Huffman#compress(Path, Path)}, {@link AdaptiveHuffman}, and
+ * {@link Deflater} with the {@link Deflater#HUFFMAN_ONLY} strategy, which is the same
+ * order-0 coding as ours, and with its default strategy for reference. Each file is
+ * compressed from disk to a temporary file and decompressed back, and the result checked
+ * against the original. The whole corpus is run once to warm the JIT up first, then each
+ * file is timed the given number of times (3 by default) and the fastest kept.</p>
+ *
+ * <p>One line is reported for each file type and codec, as CSV or with -json as JSON,
+ * giving the files and bytes, the compressed size as a percentage, compression and
+ * decompression MB/s over the fastest runs, the peak heap used during any run, summed over
+ * the heap's memory pools, and the wall time of all the runs. The types are those the UI
+ * offers, .bmp, .rtf and .txt, unless -t gives others, such as -t .txt,.log, or -t all for
+ * every file.</p>
+ *
+ * @author Jacob Gordon
+ */
+public final class MacroBenchmark {
+
+    /**
+     * The file types the UI offers.
+     */
+    private static final String DEFAULT_TYPES = ".bmp,.rtf,.txt";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private MacroBenchmark() {
+        // static methods only
+    }
+
+
+    /**
+     * A way to compress and decompress files.
+     */
+    private interface Codec {
+        void compress(Path in, Path out) throws IOException;
+
+        void decompress(Path in, Path out) throws IOException;
+    }
+
+
+    /**
+     * Totals for one file type and codec.
+     */
+    private static final class Result {
+        final String type;
+        final String codec;
+        int files;
+        long bytes;
+        long compressed;
+        long compressNanos;
+        long decompressNanos;
+        long peakHeap;
+        long wallNanos;
+
+        Result(String type, String codec) {
+            this.type = type;
+            this.codec = codec;
+        }
+    }
+
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args the directory and options.
+     * @throws IOException If the files cannot be read, or a codec fails.
+     */
+    public static void main(String[] args) throws IOException {
+        Path dir = null;
+        Path output = null;
+        boolean json = false;
+        int repeats = 3;
+        String types = DEFAULT_TYPES;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-json")) {
+                json = true;
+            } else if (args[i].equals("-o")) {
+                output = Paths.get(args[++i]);
+            } else if (args[i].equals("-r")) {
+                repeats = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-t")) {
+                types = args[++i];
+            } else {
+                dir = Paths.get(args[i]);
+            }
+        }
+        if (dir == null || repeats < 1) {
+            System.err.println("usage: huffman.bench.MacroBenchmark <dir> [-json] [-o file] [-r repeats] [-t types|all]");
+            System.exit(2);
+        }
+
+        List<Path> files = listFiles(dir, types);
+        if (files.isEmpty()) {
+            System.err.println("No " + types + " files in " + dir);
+            System.exit(1);
+        }
+        Map<String, Codec> codecs = codecs();
+        Map<String, Result> results = new LinkedHashMap<String, Result>();
+        Path scratch = Files.createTempDirectory("huff-bench");
+        try {
+            // warm up
+            for (Path file : files) {
+                for (Codec codec : codecs.values()) {
+                    run(file, codec, scratch);
+                }
+            }
+            for (Path file : files) {
+                for (Map.Entry<String, Codec> codec : codecs.entrySet()) {
+                    String key = typeOf(file) + " " + codec.getKey();
+                    Result result = results.get(key);
+                    if (result == null) {
+                        result = new Result(typeOf(file), codec.getKey());
+                        results.put(key, result);
+                    }
+                    long bestCompress = Long.MAX_VALUE;
+                    long bestDecompress = Long.MAX_VALUE;
+                    for (int r = 0; r < repeats; r++) {
+                        long start = System.nanoTime();
+                        Run run = run(file, codec.getValue(), scratch);
+                        result.wallNanos += System.nanoTime() - start;
+                        bestCompress = Math.min(bestCompress, run.compressNanos);
+                        bestDecompress = Math.min(bestDecompress, run.decompressNanos);
+                        result.peakHeap = Math.max(result.peakHeap, run.peakHeap);
+                        if (r == 0) {
+                            result.compressed += run.compressed;
+                        }
+                    }
+                    result.files++;
+                    result.bytes += Files.size(file);
+                    result.compressNanos += bestCompress;
+                    result.decompressNanos += bestDecompress;
+                }
+            }
+        } finally {
+            deleteTree(scratch);
+        }
+
+        PrintStream out = output == null ? System.out : new PrintStream(Files.newOutputStream(output), true, "UTF-8");
+        try {
+            report(results.values(), json, out);
+        } finally {
+            if (output != null) {
+                out.close();
+            }
+        }
+    }
+
+
+    /**
+     * Returns the codecs to compare, by name.
+     *
+     * @return the codecs.
+     */
+    private static Map<String, Codec> codecs() {
+        Map<String, Codec> codecs = new LinkedHashMap<String, Codec>();
+        codecs.put("huffman", new Codec() {
+            @Override
+            public void compress(Path in, Path out) throws IOException {
+                Huffman.compress(in, out);
+            }
+
+            @Override
+            public void decompress(Path in, Path out) throws IOException {
+                Huffman.decompress(in, out);
+            }
+        });
+        codecs.put("huffman-adaptive", new Codec() {
+            @Override
+            public void compress(Path in, Path out) throws IOException {
+                try (InputStream input = open(in); OutputStream output = create(out)) {
+                    AdaptiveHuffman.compress(input, output);
+                }
+            }
+
+            @Override
+            public void decompress(Path in, Path out) throws IOException {
+                try (InputStream input = open(in); OutputStream output = create(out)) {
+                    // reads the header, and hands the rest to AdaptiveHuffman
+                    Huffman.decompress(input, output);
+                }
+            }
+        });
+        codecs.put("deflate-huffman-only", new DeflateCodec(Deflater.HUFFMAN_ONLY));
+        codecs.put("deflate-default", new DeflateCodec(Deflater.DEFAULT_STRATEGY));
+        return codecs;
+    }
+
+
+    /**
+     * java.util.zip's deflate, in zlib format, with one strategy.
+     */
+    private static final class DeflateCodec implements Codec {
+        private final int strategy;
+
+        DeflateCodec(int strategy) {
+            this.strategy = strategy;
+        }
+
+        @Override
+        public void compress(Path in, Path out) throws IOException {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+            deflater.setStrategy(strategy);
+            try (InputStream input = open(in);
+                    OutputStream output = new DeflaterOutputStream(create(out), deflater, BUFFER_SIZE)) {
+                copy(input, output);
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        public void decompress(Path in, Path out) throws IOException {
+            Inflater inflater = new Inflater();
+            try (InputStream input = new InflaterInputStream(open(in), inflater, BUFFER_SIZE);
+                    OutputStream output = create(out)) {
+                copy(input, output);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+
+    /**
+     * The measurements of one file's run through a codec.
+     */
+    private static final class Run {
+        long compressed;
+        long compressNanos;
+        long decompressNanos;
+        long peakHeap;
+    }
+
+
+    /**
+     * Compresses a file and decompresses it again, checking it comes back the same.
+     *
+     * @param file the file.
+     * @param codec the codec.
+     * @param scratch a directory for the output.
+     * @return the measurements.
+     * @throws IOException If the files cannot be read or written, or the file does not
+     *     come back the same.
+     */
+    private static Run run(Path file, Codec codec, Path scratch) throws IOException {
+        Path compressed = scratch.resolve("compressed");
+        Path decompressed = scratch.resolve("decompressed");
+        Files.deleteIfExists(compressed);
+        Files.deleteIfExists(decompressed);
+        List<MemoryPoolMXBean> pools = heapPools();
+        System.gc();
+        for (MemoryPoolMXBean pool : pools) {
+            pool.resetPeakUsage();
+        }
+
+        Run run = new Run();
+        long start = System.nanoTime();
+        codec.compress(file, compressed);
+        run.compressNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        codec.decompress(compressed, decompressed);
+        run.decompressNanos = System.nanoTime() - start;
+        for (MemoryPoolMXBean pool : pools) {
+            run.peakHeap += pool.getPeakUsage().getUsed();
+        }
+        run.compressed = Files.size(compressed);
+
+        if (Files.size(decompressed) != Files.size(file) || crc(decompressed) != crc(file)) {
+            throw new IOException(file + " did not come back the same");
+        }
+        return run;
+    }
+
+
+    /**
+     * Writes the results, as CSV or JSON.
+     *
+     * @param results the results.
+     * @param json true for JSON, or false for CSV.
+     * @param out where to write them.
+     */
+    private static void report(Iterable<Result> results, boolean json, PrintStream out) {
+        if (json) {
+            out.println("[");
+        } else {
+            out.println("type,codec,files,bytes,compressed_bytes,ratio_percent,compress_mb_s,"
+                    + "decompress_mb_s,peak_heap_mb,wall_s");
+        }
+        for (Iterator<Result> i = results.iterator(); i.hasNext(); ) {
+            Result r = i.next();
+            double ratio = r.bytes == 0 ? 100.0 : r.compressed * 100.0 / r.bytes;
+            double compressRate = r.bytes / 1e6 / Math.max(r.compressNanos / 1e9, 1e-9);
+            double decompressRate = r.bytes / 1e6 / Math.max(r.decompressNanos / 1e9, 1e-9);
+            double heap = r.peakHeap / 1e6;
+            double wall = r.wallNanos / 1e9;
+            if (json) {
+                out.printf(Locale.ROOT, "  {\"type\": \"%s\", \"codec\": \"%s\", \"files\": %d, \"bytes\": %d, "
+                        + "\"compressed_bytes\": %d, \"ratio_percent\": %.2f, \"compress_mb_s\": %.1f, "
+                        + "\"decompress_mb_s\": %.1f, \"peak_heap_mb\": %.1f, \"wall_s\": %.3f}%s%n",
+                        r.type, r.codec, r.files, r.bytes, r.compressed, ratio, compressRate, decompressRate,
+                        heap, wall, i.hasNext() ? "," : "");
+            } else {
+                out.printf(Locale.ROOT, "%s,%s,%d,%d,%d,%.2f,%.1f,%.1f,%.1f,%.3f%n", r.type, r.codec, r.files,
+                        r.bytes, r.compressed, ratio, compressRate, decompressRate, heap, wall);
+            }
+        }
+        if (json) {
+            out.println("]");
+        }
+    }
+
+
+    /**
+     * Returns the regular files under a directory of the given types, in order of type
+     * and then name.
+     *
+     * @param dir the directory.
+     * @param types file extensions separated by commas, or "all".
+     * @return the files.
+     * @throws IOException If the directory cannot be read.
+     */
+    private static List<Path> listFiles(Path dir, String types) throws IOException {
+        List<String> wanted = Arrays.asList(types.toLowerCase(Locale.ROOT).split(","));
+        List<Path> files = new ArrayList<Path>();
+        try (Stream<Path> walk = Files.walk(dir)) {
+            Iterator<Path> i = walk.iterator();
+            while (i.hasNext()) {
+                Path path = i.next();
+                if (Files.isRegularFile(path) && (types.equals("all") || wanted.contains(typeOf(path)))) {
+                    files.add(path);
+                }
+            }
+        }
+        // grouped by type, so the results are too
+        files.sort(new Comparator<Path>() {
+            @Override
+            public int compare(Path a, Path b) {
+                int type = typeOf(a).compareTo(typeOf(b));
+                return type != 0 ? type : a.compareTo(b);
+            }
+        });
+        return files;
+    }
+
+
+    /**
+     * Returns a file's type: its extension, with the dot, in lower case.
+     *
+     * @param file the file.
+     * @return the extension, or "none".
+     */
+    private static String typeOf(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot <= 0 ? "none" : name.substring(dot).toLowerCase(Locale.ROOT);
+    }
+
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+
+
+    private static long crc(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+
+
+    private static InputStream open(Path file) throws IOException {
+        return new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+    }
+
+
+    private static OutputStream create(Path file) throws IOException {
+        return new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE);
+    }
+
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+    }
+
+
+    private static void deleteTree(Path dir) throws IOException {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            List<Path> paths = new ArrayList<Path>();
+            Iterator<Path> i = walk.iterator();
+            while (i.hasNext()) {
+                paths.add(i.next());
+            }
+            // children before their directory
+            for (int j = paths.size() - 1; j >= 0; j--) {
+                Files.delete(paths.get(j));
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package huffman.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import huffman.Histogram;
+import huffman.Huffman;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Counting byte values, and counting them and building the tree from the counts.
+ *
+ * @author Jacob Gordon
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeBenchmark {
+
+    @Benchmark
+    public Histogram histogram(InputState input, Bytes bytes) {
+        bytes.bytes += input.size;
+        return Histogram.of(input.data);
+    }
+
+
+    @Benchmark
+    public Huffman tree(InputState input, Bytes bytes) {
+        bytes.bytes += input.size;
+        return new Huffman(input.data);
+    }
+}
@@ -0,0 +1,75 @@
+package huffman;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Round-trips the single-pass adaptive format, at several rebuild intervals and through
+ * input that arrives a byte at a time, as from a pipe.
+ *
+ * @author Jacob Gordon
+ */
+public class AdaptiveHuffmanTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void intervals() throws IOException {
+        for (int interval : new int[] {1000, AdaptiveHuffman.DEFAULT_INTERVAL, AdaptiveHuffman.MAX_INTERVAL}) {
+            for (Map.Entry<String, byte[]> input : Fixtures.inputs().entrySet()) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                AdaptiveHuffman.compress(new ByteArrayInputStream(input.getValue()), compressed, interval);
+                assertEquals(Huffman.VERSION_ADAPTIVE, compressed.toByteArray()[2]);
+                Fixtures.check(folder, input.getKey() + " interval=" + interval, input.getValue(),
+                        compressed.toByteArray());
+            }
+        }
+    }
+
+
+    @Test
+    public void trickle() throws IOException {
+        byte[] data = Fixtures.inputs().get("text");
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        AdaptiveHuffman.compress(new Trickle(data), compressed, 1000);
+
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        Huffman.decompress(new Trickle(compressed.toByteArray()), decompressed);
+        assertArrayEquals(data, decompressed.toByteArray());
+    }
+
+
+    /**
+     * An input stream that hands out one byte per read.
+     */
+    private static class Trickle extends InputStream {
+
+        private final ByteArrayInputStream in;
+
+        Trickle(byte[] data) {
+            this.in = new ByteArrayInputStream(data);
+        }
+
+        @Override
+        public int read() {
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            return in.read(b, off, Math.min(len, 1));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package huffman;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Writes codes of every length from 0 to 32 bits with {@link BitWriter} and reads them
+ * back with {@link BitReader}, from a stream and from a buffer, across more than one
+ * buffer's worth of bytes.
+ *
+ * @author Jacob Gordon
+ */
+public class BitIoTest {
+
+    private static final int CODES = 100000;
+
+
+    @Test
+    public void stream() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int[][] codes = write(new BitWriter(out));
+        read(new BitReader(new ByteArrayInputStream(out.toByteArray())), codes);
+    }
+
+
+    @Test
+    public void buffer() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int[][] codes = write(new BitWriter(out));
+
+        ByteBuffer dst = ByteBuffer.allocate(out.size());
+        BitWriter writer = new BitWriter(dst);
+        assertEquals(codes.length, write(writer).length);
+        assertEquals(0, dst.remaining());
+        assertEquals(ByteBuffer.wrap(out.toByteArray()), dst.flip());
+
+        // a reader starts at the buffer's position and leaves it there
+        ByteBuffer src = ByteBuffer.allocate(out.size() + 3);
+        src.position(3);
+        src.put(out.toByteArray());
+        src.position(3);
+        read(new BitReader(src), codes);
+        assertEquals(3, src.position());
+    }
+
+
+    @Test
+    public void padding() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BitWriter writer = new BitWriter(out);
+        writer.write(true);
+        writer.write(0);
+        writer.write(1);
+        writer.flush();
+        assertEquals(1, out.size());
+        assertEquals(0xA0, out.toByteArray()[0] & 0xFF);
+
+        writer.writeByte((byte) 0x5C);
+        writer.writeBits(0x3, 2);
+        writer.flush();
+        assertEquals(3, out.size());
+        assertEquals(0x5C, out.toByteArray()[1] & 0xFF);
+        assertEquals(0xC0, out.toByteArray()[2] & 0xFF);
+
+        // past the end, bits read as 0
+        BitReader reader = new BitReader(ByteBuffer.wrap(out.toByteArray()));
+        assertEquals(0xA05C, reader.readBits(16));
+        assertEquals(0xC000, reader.peekBits(16));
+        assertFalse(reader.isDone());
+        reader.skipBits(16);
+        assertTrue(reader.isDone());
+        assertEquals(0, reader.readBits(32));
+    }
+
+
+    /**
+     * Writes codes of random lengths, and returns each code and its length.
+     */
+    private static int[][] write(BitWriter writer) throws IOException {
+        Random random = new Random(11);
+        int[][] codes = new int[CODES][];
+        for (int i = 0; i < CODES; i++) {
+            int length = random.nextInt(33);
+            int code = random.nextInt();
+            writer.writeBits(code, length);
+            codes[i] = new int[] {length == 32 ? code : code & ((1 << length) - 1), length};
+        }
+        writer.flush();
+        return codes;
+    }
+
+
+    private static void read(BitReader reader, int[][] codes) throws IOException {
+        long position = 0;
+        for (int i = 0; i < codes.length; i++) {
+            int length = codes[i][1];
+            if (length == 0) {
+                reader.skipBits(0);
+            } else if (i % 2 == 0) {
+                assertEquals("code " + i, codes[i][0], reader.readBits(length));
+            } else {
+                assertEquals("code " + i, codes[i][0], reader.peekBits(length));
+                reader.skipBits(length);
+            }
+            position += length;
+            assertEquals(position, reader.getBitPosition());
+        }
+        assertFalse(reader.isDone());
+    }
+}
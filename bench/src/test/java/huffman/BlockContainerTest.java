@@ -0,0 +1,197 @@
+package huffman;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import huffman.bench.Corpus;
+
+/**
+ * Round-trips block containers written by {@link BlockCompressor}, checks which blocks it
+ * stores, and checks the block index that lets {@link BlockDecompressor} decode their
+ * blocks in parallel.
+ *
+ * @author Jacob Gordon
+ */
+public class BlockContainerTest {
+
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void blocks() throws IOException {
+        for (int maxCodeLength : new int[] {8, CanonicalCode.MAX_CODE_LENGTH}) {
+            BlockCompressor compressor = new BlockCompressor(BLOCK_SIZE, 4, maxCodeLength, false);
+            for (Map.Entry<String, byte[]> input : Fixtures.inputs().entrySet()) {
+                String name = input.getKey() + " max=" + maxCodeLength;
+                byte[] data = input.getValue();
+
+                Path in = Fixtures.write(folder, input.getKey(), data);
+                Path out = folder.getRoot().toPath().resolve(input.getKey() + Huffman.HUFF_EXT);
+                compressor.compress(in, out);
+                byte[] file = Files.readAllBytes(out);
+                assertEquals(name, Huffman.VERSION_BLOCKS, file[2]);
+                Fixtures.check(folder, name, data, file);
+
+                ByteArrayOutputStream stream = new ByteArrayOutputStream();
+                compressor.compress(new ByteArrayInputStream(data), stream);
+                Fixtures.check(folder, name, data, stream.toByteArray());
+                if (input.getKey().equals("text")) {
+                    assertEquals(name, Fixtures.set(BlockCompressor.BLOCK_HUFFMAN),
+                            Fixtures.blockTypes(stream.toByteArray()));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Writes blocks as four interleaved sub-streams, with a block size that is not a multiple
+     * of four so that the sub-streams of a block differ in length.
+     */
+    @Test
+    public void interleaved() throws IOException {
+        for (int maxCodeLength : new int[] {8, CanonicalCode.MAX_CODE_LENGTH}) {
+            BlockCompressor compressor = new BlockCompressor(BLOCK_SIZE + 3, 4, maxCodeLength, true);
+            for (Map.Entry<String, byte[]> input : Fixtures.inputs().entrySet()) {
+                String name = input.getKey() + " max=" + maxCodeLength;
+                byte[] data = input.getValue();
+                ByteArrayOutputStream stream = new ByteArrayOutputStream();
+                compressor.compress(new ByteArrayInputStream(data), stream);
+                Fixtures.check(folder, name, data, stream.toByteArray());
+                if (input.getKey().equals("text")) {
+                    assertEquals(name, Fixtures.set(BlockCompressor.BLOCK_HUFFMAN4),
+                            Fixtures.blockTypes(stream.toByteArray()));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Stores the blocks that do not compress, whichever way the others are encoded, and
+     * never lets the default entry points write more than the smaller of a canonical file
+     * and a container of stored blocks.
+     */
+    @Test
+    public void stored() throws IOException {
+        byte[] binary = Fixtures.inputs().get("binary");
+        for (boolean interleaved : new boolean[] {true, false}) {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            new BlockCompressor(BLOCK_SIZE, 4, CanonicalCode.MAX_CODE_LENGTH, interleaved)
+                    .compress(new ByteArrayInputStream(binary), stream);
+            assertEquals(Fixtures.set(BlockCompressor.BLOCK_STORED), Fixtures.blockTypes(stream.toByteArray()));
+            Fixtures.check(folder, "binary interleaved=" + interleaved, binary, stream.toByteArray());
+        }
+
+        Random random = new Random(13);
+        for (int length = 0; length <= 200; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            Histogram histogram = new Histogram();
+            histogram.add(data, 0, length);
+            long canonical = Huffman.canonicalSize(length,
+                    new Huffman(histogram).getCanonicalCode().getEncodedBits(histogram.getCounts()));
+            ByteArrayOutputStream container = new ByteArrayOutputStream();
+            new BlockCompressor().compress(new ByteArrayInputStream(data), container);
+
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            Huffman.compress(new ByteArrayInputStream(data), stream);
+            assertTrue("length " + length, stream.size() <= Math.min(canonical, container.size()));
+            Path in = Fixtures.write(folder, "random", data);
+            Path out = folder.getRoot().toPath().resolve("random" + Huffman.HUFF_EXT);
+            Huffman.compress(in, out);
+            assertEquals("length " + length, stream.size(), Files.size(out));
+            Fixtures.check(folder, "length " + length, data, stream.toByteArray());
+        }
+    }
+
+
+    /**
+     * Gives each block of a long input its own choice: the random half is stored, and the
+     * text half encoded.
+     */
+    @Test
+    public void mixed() throws IOException {
+        int half = 2 * BlockCompressor.DEFAULT_BLOCK_SIZE;
+        byte[] data = new byte[2 * half];
+        System.arraycopy(new Corpus(Corpus.Shape.BINARY, 1).generate(half), 0, data, 0, half);
+        System.arraycopy(new Corpus(Corpus.Shape.TEXT, 1).generate(half), 0, data, half, half);
+        Path in = Fixtures.write(folder, "mixed", data);
+        Path blocks = folder.getRoot().toPath().resolve("blocks" + Huffman.HUFF_EXT);
+        new BlockCompressor().compress(in, blocks);
+
+        Path out = folder.getRoot().toPath().resolve("mixed" + Huffman.HUFF_EXT);
+        Huffman.compress(in, out);
+        byte[] file = Files.readAllBytes(out);
+        assertEquals(Files.size(blocks), file.length);
+        Set<Integer> types = Fixtures.set(BlockCompressor.BLOCK_STORED);
+        types.add(BlockCompressor.BLOCK_HUFFMAN4);
+        assertEquals(types, Fixtures.blockTypes(file));
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        Huffman.compress(new ByteArrayInputStream(data), stream);
+        assertEquals(file.length, stream.size());
+        Fixtures.check(folder, "mixed", data, file);
+    }
+
+
+    @Test
+    public void index() throws IOException {
+        BlockCompressor compressor = new BlockCompressor(BLOCK_SIZE, 4);
+        for (Map.Entry<String, byte[]> input : Fixtures.inputs().entrySet()) {
+            String name = input.getKey();
+            byte[] data = input.getValue();
+            Path in = Fixtures.write(folder, name, data);
+            Path out = folder.getRoot().toPath().resolve(name + Huffman.HUFF_EXT);
+            compressor.compress(in, out);
+
+            // one entry per block, each pointing at its record, lengths adding up to the input
+            ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(out));
+            assertEquals(name, BlockCompressor.FLAG_INDEX, file.get(3) & BlockCompressor.FLAG_INDEX);
+            int indexOffset = (int) file.getLong(file.limit() - 8);
+            int blocks = file.getInt(indexOffset);
+            assertEquals(name, (data.length + BLOCK_SIZE - 1) / BLOCK_SIZE, blocks);
+            assertEquals(name, file.limit() - 8, indexOffset + 4 + blocks * BlockCompressor.INDEX_ENTRY_SIZE);
+            long total = 0;
+            for (int i = 0; i < blocks; i++) {
+                int entry = indexOffset + 4 + i * BlockCompressor.INDEX_ENTRY_SIZE;
+                int type = file.get((int) file.getLong(entry));
+                assertTrue(name, type != BlockCompressor.BLOCK_END);
+                total += file.getInt(entry + 12);
+            }
+            assertEquals(name, data.length, total);
+
+            for (int parallelism : new int[] {1, 4}) {
+                Path decompressed = folder.getRoot().toPath().resolve(name + ".out");
+                new BlockDecompressor(parallelism).decompress(out, decompressed);
+                assertArrayEquals(name + " parallelism=" + parallelism, data, Files.readAllBytes(decompressed));
+            }
+
+            // without the flag, the blocks are decoded in order
+            byte[] unindexed = file.array().clone();
+            unindexed[3] &= ~BlockCompressor.FLAG_INDEX;
+            Path plain = Fixtures.write(folder, name + ".plain", unindexed);
+            Path decompressed = folder.getRoot().toPath().resolve(name + ".out");
+            new BlockDecompressor(4).decompress(plain, decompressed);
+            assertArrayEquals(name + " unindexed", data, Files.readAllBytes(decompressed));
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package huffman;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Round-trips the canonical format through the stream entry points, and reads the legacy
+ * tree format that came before it.
+ *
+ * @author Jacob Gordon
+ */
+public class CanonicalFormatTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void stream() throws IOException {
+        for (Map.Entry<String, byte[]> input : Fixtures.inputs().entrySet()) {
+            byte[] data = input.getValue();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            Huffman.compress(new ByteArrayInputStream(data), compressed);
+            byte[] file = compressed.toByteArray();
+            assertEquals(input.getKey(), Huffman.MAGIC[0], file[0]);
+            assertEquals(input.getKey(), Huffman.MAGIC[1], file[1]);
+            if (!input.getKey().equals("binary")) {
+                assertEquals(input.getKey(), Huffman.VERSION_CANONICAL, file[2]);
+            }
+            Fixtures.check(folder, input.getKey(), data, file);
+        }
+    }
+
+
+    @Test
+    public void legacy() throws IOException {
+        for (String name : Fixtures.LEGACY) {
+            byte[] legacy = Fixtures.legacy(name + Huffman.HUFF_EXT);
+            assertNotEquals(name, Huffman.MAGIC[0], legacy[0]);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Huffman.decompress(new ByteArrayInputStream(legacy), out);
+            assertArrayEquals(name, Fixtures.legacy(name), out.toByteArray());
+        }
+    }
+}
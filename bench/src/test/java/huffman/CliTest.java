@@ -0,0 +1,161 @@
+package huffman;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs {@link Cli} commands and checks their exit status, their output files and what they
+ * print, with standard input, output and error swapped for buffers.
+ *
+ * @author Jacob Gordon
+ */
+public class CliTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final InputStream stdin = System.in;
+    private final PrintStream stdout = System.out;
+    private final PrintStream stderr = System.err;
+
+    private ByteArrayOutputStream out;
+    private ByteArrayOutputStream err;
+
+
+    @Before
+    public void capture() {
+        out = new ByteArrayOutputStream();
+        err = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out, true));
+        System.setErr(new PrintStream(err, true));
+    }
+
+
+    @After
+    public void restore() {
+        System.setIn(stdin);
+        System.setOut(stdout);
+        System.setErr(stderr);
+    }
+
+
+    @Test
+    public void usage() {
+        assertEquals(2, run());
+        assertEquals(2, run("squash"));
+        assertEquals(2, run("compress", "-x"));
+        assertEquals(2, run("compress", "-j", "0"));
+        assertEquals(2, run("compress", "-j", "many"));
+        assertEquals(2, run("stats", "-s", "2"));
+
+        // an option with no value after it
+        err.reset();
+        assertEquals(2, run("compress", "-j"));
+        assertTrue(err.toString(), err.toString().startsWith("Missing value for -j"));
+        err.reset();
+        assertEquals(2, run("stats", "-s"));
+        assertTrue(err.toString(), err.toString().startsWith("Missing value for -s"));
+    }
+
+
+    @Test
+    public void files() throws IOException {
+        byte[] text = Fixtures.inputs().get("text");
+        byte[] binary = Fixtures.inputs().get("binary");
+        Path a = Fixtures.write(folder, "a.txt", text);
+        Path b = Fixtures.write(folder, "b.bin", binary);
+        Path huffA = folder.getRoot().toPath().resolve("a.txt" + Huffman.HUFF_EXT);
+        Path huffB = folder.getRoot().toPath().resolve("b.bin" + Huffman.HUFF_EXT);
+
+        assertEquals(0, run("compress", "-j", "2", a.toString(), b.toString()));
+        assertEquals(2, out.toString().split("\n").length);
+        assertTrue(Files.size(huffA) < text.length);
+
+        // outputs are not replaced without -f
+        assertEquals(1, run("compress", "-q", a.toString()));
+        assertTrue(err.toString(), err.toString().contains("already exists"));
+        assertEquals(0, run("compress", "-q", "-f", a.toString()));
+
+        // -d deletes each input once it is done
+        assertEquals(0, run("decompress", "-q", "-f", "-d", huffA.toString(), huffB.toString()));
+        assertFalse(Files.exists(huffA));
+        assertFalse(Files.exists(huffB));
+        assertArrayEquals(text, Files.readAllBytes(a));
+        assertArrayEquals(binary, Files.readAllBytes(b));
+
+        // one failure fails the run, but the other files are still done
+        err.reset();
+        Path missing = folder.getRoot().toPath().resolve("missing");
+        assertEquals(1, run("compress", "-q", missing.toString(), b.toString()));
+        assertEquals(missing + ": No such file", err.toString().trim());
+        assertTrue(Files.exists(huffB));
+        assertEquals(1, run("decompress", "-q", a.toString()));
+    }
+
+
+    @Test
+    public void streams() throws IOException {
+        byte[] text = Fixtures.inputs().get("text");
+        System.setIn(new ByteArrayInputStream(text));
+        assertEquals(0, run("compress"));
+        byte[] compressed = out.toByteArray();
+        assertTrue(err.toString(), err.toString().startsWith("-: " + text.length + " -> " + compressed.length));
+        Fixtures.check(folder, "stdin", text, compressed);
+
+        out.reset();
+        System.setIn(new ByteArrayInputStream(compressed));
+        assertEquals(0, run("decompress", "-q", "-"));
+        assertArrayEquals(text, out.toByteArray());
+
+        // test counts the output of standard input, and writes none
+        out.reset();
+        System.setIn(new ByteArrayInputStream(compressed));
+        assertEquals(0, run("test"));
+        assertTrue(out.toString(), out.toString().startsWith("-: " + compressed.length + " -> " + text.length));
+    }
+
+
+    @Test
+    public void testAndStats() throws IOException {
+        byte[] text = Fixtures.inputs().get("text");
+        Path a = Fixtures.write(folder, "a.txt", text);
+        Path huff = folder.getRoot().toPath().resolve("a.txt" + Huffman.HUFF_EXT);
+        Huffman.compress(a, huff);
+
+        assertEquals(0, run("test", huff.toString()));
+        assertTrue(out.toString(), out.toString().startsWith(huff + ": " + Files.size(huff) + " -> " + text.length));
+        assertFalse(Files.exists(a.resolveSibling("a.txt.out")));
+
+        Path bad = Fixtures.write(folder, "bad" + Huffman.HUFF_EXT, new byte[] {Huffman.MAGIC[0], Huffman.MAGIC[1], 99});
+        err.reset();
+        assertEquals(1, run("test", bad.toString()));
+        assertTrue(err.toString(), err.toString().startsWith(bad + ": "));
+
+        out.reset();
+        assertEquals(0, run("stats", "-s", "0.5", a.toString()));
+        assertTrue(out.toString(), out.toString().startsWith(a + ": "));
+        System.setIn(new ByteArrayInputStream(text));
+        assertEquals(1, run("stats"));
+    }
+
+
+    private static int run(String... args) {
+        return Cli.run(args);
+    }
+}
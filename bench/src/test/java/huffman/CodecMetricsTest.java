@@ -0,0 +1,132 @@
+package huffman;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Compresses and decompresses a canonical file and a block container with
+ * {@link CodecMetrics} on, and checks each job's {@link CodecStats} and the totals against
+ * the sizes of the files; with metrics off, checks that every job shares the same empty
+ * stats.
+ *
+ * @author Jacob Gordon
+ */
+public class CodecMetricsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final CodecMetrics metrics = CodecMetrics.getInstance();
+
+
+    @After
+    public void disable() {
+        metrics.setEnabled(false);
+        metrics.reset();
+    }
+
+
+    @Test
+    public void totals() throws IOException, JMException {
+        byte[] text = Fixtures.inputs().get("text");
+        byte[] binary = Fixtures.inputs().get("binary");
+        Path a = Fixtures.write(folder, "a.txt", text);
+        Path b = Fixtures.write(folder, "b.bin", binary);
+        Path huffA = folder.getRoot().toPath().resolve("a.txt" + Huffman.HUFF_EXT);
+        Path huffB = folder.getRoot().toPath().resolve("b.bin" + Huffman.HUFF_EXT);
+        Path outA = folder.getRoot().toPath().resolve("a.out");
+        Path outB = folder.getRoot().toPath().resolve("b.out");
+
+        metrics.setEnabled(true);
+        metrics.reset();
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(CodecMetrics.OBJECT_NAME)));
+
+        CodecStats compressA = Huffman.compress(a, huffA);
+        CodecStats compressB = new BlockCompressor(1 << 16, 2).compress(b, huffB);
+        assertEquals(Huffman.VERSION_CANONICAL, Files.readAllBytes(huffA)[2]);
+        assertEquals(Huffman.VERSION_BLOCKS, Files.readAllBytes(huffB)[2]);
+        CodecStats decompressA = Huffman.decompress(huffA, outA);
+        CodecStats decompressB = new BlockDecompressor(2).decompress(huffB, outB);
+        assertArrayEquals(text, Files.readAllBytes(outA));
+        assertArrayEquals(binary, Files.readAllBytes(outB));
+
+        check(compressA, true, text.length, Files.size(huffA));
+        check(compressB, true, binary.length, Files.size(huffB));
+        check(decompressA, false, Files.size(huffA), text.length);
+        check(decompressB, false, Files.size(huffB), binary.length);
+        int blocks = (binary.length + (1 << 16) - 1) >> 16;
+        assertEquals(blocks, compressB.getBlocks());
+        assertEquals(blocks, decompressB.getBlocks());
+
+        assertEquals(2, metrics.getCompressJobs());
+        assertEquals(2, metrics.getDecompressJobs());
+        assertEquals(text.length + binary.length, metrics.getCompressBytesIn());
+        assertEquals(Files.size(huffA) + Files.size(huffB), metrics.getCompressBytesOut());
+        assertEquals(Files.size(huffA) + Files.size(huffB), metrics.getDecompressBytesIn());
+        assertEquals(text.length + binary.length, metrics.getDecompressBytesOut());
+        assertEquals(compressA.getBlocks() + compressB.getBlocks() + decompressA.getBlocks()
+                + decompressB.getBlocks(), metrics.getBlocks());
+        assertEquals((double) metrics.getCompressBytesOut() / metrics.getCompressBytesIn(),
+                metrics.getCompressionRatio(), 1e-12);
+        assertTrue(metrics.getEntropy() > 0 && metrics.getEntropy() <= metrics.getAverageCodeLength());
+
+        metrics.reset();
+        assertEquals(0, metrics.getCompressJobs());
+        assertEquals(0, metrics.getCompressBytesIn());
+        assertEquals(0, metrics.getBlocks());
+    }
+
+
+    @Test
+    public void disabled() throws IOException {
+        byte[] text = Fixtures.inputs().get("text");
+        Path a = Fixtures.write(folder, "a.txt", text);
+        Path huffA = folder.getRoot().toPath().resolve("a.txt" + Huffman.HUFF_EXT);
+        Path huffB = folder.getRoot().toPath().resolve("b" + Huffman.HUFF_EXT);
+        Path out = folder.getRoot().toPath().resolve("a.out");
+
+        metrics.setEnabled(false);
+        CodecStats compressA = Huffman.compress(a, huffA);
+        CodecStats compressB = new BlockCompressor(1 << 16, 2).compress(a, huffB);
+        assertSame(CodecStats.NONE, compressA);
+        assertSame(CodecStats.NONE, compressB);
+        assertFalse(compressA.isEnabled());
+
+        CodecStats decompressA = Huffman.decompress(huffA, out);
+        CodecStats decompressB = new BlockDecompressor().decompress(huffB, out);
+        assertSame(decompressA, decompressB);
+        assertNotSame(CodecStats.NONE, decompressA);
+        assertFalse(decompressA.isEnabled());
+        assertFalse(decompressA.isCompressing());
+        assertEquals(0, decompressA.getBytesIn());
+
+        assertEquals(0, metrics.getCompressJobs());
+        assertEquals(0, metrics.getDecompressJobs());
+    }
+
+
+    private static void check(CodecStats stats, boolean compressing, long in, long out) {
+        assertTrue(stats.isEnabled());
+        assertEquals(compressing, stats.isCompressing());
+        assertEquals(in, stats.getBytesIn());
+        assertEquals(out, stats.getBytesOut());
+        assertTrue(stats.getBlocks() > 0);
+    }
+}
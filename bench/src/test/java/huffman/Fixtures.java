@@ -0,0 +1,159 @@
+package huffman;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.rules.TemporaryFolder;
+
+import huffman.bench.Corpus;
+
+/**
+ * Inputs and checks shared by the codec tests.
+ *
+ * @author Jacob Gordon
+ */
+final class Fixtures {
+
+    /**
+     * Names of the legacy .huff files in {@code legacy/}, each written by the original tree
+     * format from the file of the same name without the extension: empty, a single byte, a
+     * run of one value, two values, text, and Fibonacci counts that make a tree 19 levels
+     * deep.
+     */
+    static final String[] LEGACY = {"empty", "one", "run", "two", "text", "deep"};
+
+
+    private Fixtures() {
+    }
+
+
+    /**
+     * Returns the inputs, by name: empty, single-symbol, skewed, text-like, incompressible,
+     * and counts that make a deep tree.
+     */
+    static Map<String, byte[]> inputs() {
+        Map<String, byte[]> inputs = new LinkedHashMap<String, byte[]>();
+        inputs.put("empty", new byte[0]);
+        inputs.put("one", new byte[] {7});
+        byte[] run = new byte[100000];
+        Arrays.fill(run, (byte) 200);
+        inputs.put("run", run);
+        inputs.put("two", new Corpus(Corpus.Shape.TWO, 1).generate(50000));
+        inputs.put("text", new Corpus(Corpus.Shape.TEXT, 1).generate(300000));
+        inputs.put("binary", new Corpus(Corpus.Shape.BINARY, 1).generate(300000));
+        inputs.put("deep", new Corpus(Corpus.Shape.DEEP, 1).generate(300000));
+        inputs.put("fibonacci", fibonacci(25));
+        return inputs;
+    }
+
+
+    /**
+     * Returns bytes in which value s occurs as often as the s-th Fibonacci number, shuffled;
+     * their Huffman tree is as deep as there are values.
+     */
+    static byte[] fibonacci(int values) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long a = 1;
+        long b = 1;
+        for (int s = 0; s < values; s++) {
+            for (long i = 0; i < a; i++) {
+                out.write(s);
+            }
+            long next = a + b;
+            a = b;
+            b = next;
+        }
+        byte[] bytes = out.toByteArray();
+        Random random = new Random(3);
+        for (int i = bytes.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            byte t = bytes[i];
+            bytes[i] = bytes[j];
+            bytes[j] = t;
+        }
+        return bytes;
+    }
+
+
+    /**
+     * Returns one of the files in {@code legacy/}.
+     */
+    static byte[] legacy(String name) throws IOException {
+        try (InputStream in = Fixtures.class.getResourceAsStream("legacy/" + name)) {
+            if (in == null) {
+                throw new IOException("Missing test file legacy/" + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+
+    /**
+     * Checks that compressed data decompresses to the original, through the stream and the
+     * file entry points.
+     */
+    static void check(TemporaryFolder folder, String name, byte[] data, byte[] compressed) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Huffman.decompress(new ByteArrayInputStream(compressed), out);
+        assertArrayEquals(name + " from a stream", data, out.toByteArray());
+
+        Path in = write(folder, "check" + Huffman.HUFF_EXT, compressed);
+        Path decompressed = folder.getRoot().toPath().resolve("check");
+        Huffman.decompress(in, decompressed);
+        assertArrayEquals(name + " from a file", data, Files.readAllBytes(decompressed));
+    }
+
+
+    static Path write(TemporaryFolder folder, String name, byte[] data) throws IOException {
+        return Files.write(folder.getRoot().toPath().resolve(name), data);
+    }
+
+
+    /**
+     * Returns the types of the blocks in a block container.
+     */
+    static Set<Integer> blockTypes(byte[] container) throws IOException {
+        InputStream in = new ByteArrayInputStream(container);
+        assertEquals(Huffman.MAGIC[0], (byte) in.read());
+        assertEquals(Huffman.MAGIC[1], (byte) in.read());
+        assertEquals(Huffman.VERSION_BLOCKS, in.read());
+        in.read(); // flags
+        Huffman.readLength(in); // block size
+        Set<Integer> types = new TreeSet<Integer>();
+        int type;
+        while ((type = in.read()) != BlockCompressor.BLOCK_END) {
+            types.add(type);
+            Huffman.readLength(in);
+            long size = Huffman.readLength(in);
+            assertTrue(in.skip(size) == size);
+        }
+        return types;
+    }
+
+
+    static Set<Integer> set(int type) {
+        Set<Integer> set = new TreeSet<Integer>();
+        set.add(type);
+        return set;
+    }
+}
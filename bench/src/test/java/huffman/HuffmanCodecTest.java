@@ -0,0 +1,192 @@
+package huffman;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Round-trips data through {@link HuffmanEncoder} and {@link HuffmanDecoder} with buffers
+ * of one byte and other odd sizes, so that every call stops part way with
+ * {@link CodecResult#OVERFLOW} or {@link CodecResult#UNDERFLOW} and the next one resumes,
+ * and through the channels built on them.
+ *
+ * @author Jacob Gordon
+ */
+public class HuffmanCodecTest {
+
+    /**
+     * Sizes of the input slices and output buffers passed in each call: one byte each way,
+     * one byte of input at a time into room for more, and the other way round.
+     */
+    private static final int[][] BUFFERS = {{1, 1}, {7, 13}, {1, 4099}, {4093, 1}, {65536, 4099}};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void resume() throws IOException {
+        for (Map.Entry<String, byte[]> input : inputs().entrySet()) {
+            for (int[] buffers : BUFFERS) {
+                for (int blockSize : new int[] {4099, BlockCompressor.DEFAULT_BLOCK_SIZE}) {
+                    String name = input.getKey() + " buffers=" + Arrays.toString(buffers) + " block=" + blockSize;
+                    byte[] data = input.getValue();
+                    byte[] compressed = encode(new HuffmanEncoder(blockSize), data, buffers[0], buffers[1]);
+                    Fixtures.check(folder, name, data, compressed);
+                    assertArrayEquals(name, data, decode(new HuffmanDecoder(), compressed, buffers[0], buffers[1]));
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void reset() throws IOException {
+        byte[] data = inputs().get("text");
+        HuffmanEncoder encoder = new HuffmanEncoder(4099);
+        HuffmanDecoder decoder = new HuffmanDecoder();
+        byte[] first = encode(encoder, data, 7, 13);
+        encoder.reset();
+        assertArrayEquals(first, encode(encoder, data, 7, 13));
+
+        // a reset part way through drops what was left
+        encoder.reset();
+        encoder.encode(ByteBuffer.wrap(data, 0, 5000), ByteBuffer.allocate(10), false);
+        encoder.reset();
+        assertArrayEquals(first, encode(encoder, data, 4093, 1));
+
+        assertArrayEquals(data, decode(decoder, first, 13, 7));
+        decoder.reset();
+        decoder.decode(ByteBuffer.wrap(first, 0, 100), ByteBuffer.allocate(10));
+        decoder.reset();
+        assertArrayEquals(data, decode(decoder, first, 1, 4099));
+    }
+
+
+    @Test
+    public void channels() throws IOException {
+        for (Map.Entry<String, byte[]> input : Fixtures.inputs().entrySet()) {
+            byte[] data = input.getValue();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (WritableByteChannel out = HuffmanChannels.newEncodingChannel(Channels.newChannel(compressed),
+                    1 << 15)) {
+                out.write(ByteBuffer.wrap(data));
+            }
+            Fixtures.check(folder, input.getKey(), data, compressed.toByteArray());
+
+            ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+            try (ReadableByteChannel in = HuffmanChannels.newDecodingChannel(
+                    Channels.newChannel(new ByteArrayInputStream(compressed.toByteArray())))) {
+                ByteBuffer buffer = ByteBuffer.allocate(5000);
+                while (in.read(buffer) != -1) {
+                    decompressed.write(buffer.array(), 0, buffer.position());
+                    buffer.clear();
+                }
+            }
+            assertArrayEquals(input.getKey(), data, decompressed.toByteArray());
+        }
+    }
+
+
+    /**
+     * Returns inputs small enough to pass through one byte at a time.
+     */
+    private static Map<String, byte[]> inputs() {
+        Map<String, byte[]> all = Fixtures.inputs();
+        Map<String, byte[]> inputs = new LinkedHashMap<String, byte[]>();
+        inputs.put("empty", all.get("empty"));
+        inputs.put("one", all.get("one"));
+        inputs.put("run", Arrays.copyOf(all.get("run"), 20000));
+        inputs.put("text", Arrays.copyOf(all.get("text"), 30000));
+        inputs.put("binary", Arrays.copyOf(all.get("binary"), 10000));
+        return inputs;
+    }
+
+
+    /**
+     * Encodes data handed over in slices of the given size, into an output buffer of the
+     * given size that is emptied each time a call stops.
+     */
+    private static byte[] encode(HuffmanEncoder encoder, byte[] data, int slice, int room) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer dst = ByteBuffer.allocateDirect(room);
+        int off = 0;
+        do {
+            int n = Math.min(slice, data.length - off);
+            ByteBuffer src = ByteBuffer.wrap(data, off, n);
+            off += n;
+            CodecResult result;
+            do {
+                result = encoder.encode(src, dst, off == data.length);
+                if (result.isOverflow()) {
+                    assertFalse("stopped with room left", dst.hasRemaining());
+                } else {
+                    assertFalse("stopped with input left", src.hasRemaining());
+                }
+                drain(dst, out);
+            } while (result.isOverflow());
+        } while (off < data.length);
+
+        CodecResult result;
+        do {
+            result = encoder.flush(dst);
+            if (result.isOverflow()) {
+                assertFalse(dst.hasRemaining());
+            }
+            drain(dst, out);
+        } while (result.isOverflow());
+        return out.toByteArray();
+    }
+
+
+    /**
+     * Decodes data handed over in slices of the given size, into an output buffer of the
+     * given size that is emptied each time a call stops.
+     */
+    private static byte[] decode(HuffmanDecoder decoder, byte[] compressed, int slice, int room)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer dst = ByteBuffer.allocate(room);
+        for (int off = 0; off < compressed.length; off += slice) {
+            ByteBuffer src = ByteBuffer.wrap(compressed, off, Math.min(slice, compressed.length - off));
+            CodecResult result;
+            do {
+                result = decoder.decode(src, dst);
+                if (result.isOverflow()) {
+                    assertFalse("stopped with room left", dst.hasRemaining());
+                } else {
+                    assertFalse("stopped with input left", src.hasRemaining());
+                }
+                drain(dst, out);
+            } while (result.isOverflow());
+        }
+        assertTrue(decoder.isFinished());
+        assertEquals(CodecResult.UNDERFLOW, decoder.decode(ByteBuffer.allocate(0), dst));
+        return out.toByteArray();
+    }
+
+
+    private static void drain(ByteBuffer dst, ByteArrayOutputStream out) {
+        dst.flip();
+        byte[] bytes = new byte[dst.remaining()];
+        dst.get(bytes);
+        out.write(bytes, 0, bytes.length);
+        dst.clear();
+    }
+}
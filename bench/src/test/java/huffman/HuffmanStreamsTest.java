@@ -0,0 +1,100 @@
+package huffman;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writes through {@link HuffmanOutputStream} and reads back through
+ * {@link HuffmanInputStream}, with reads and writes of every size.
+ *
+ * @author Jacob Gordon
+ */
+public class HuffmanStreamsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void roundTrip() throws IOException {
+        Random random = new Random(7);
+        for (Map.Entry<String, byte[]> input : Fixtures.inputs().entrySet()) {
+            byte[] data = input.getValue();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream out = new HuffmanOutputStream(compressed, 1 << 14)) {
+                // writes of every size, single bytes included
+                for (int off = 0; off < data.length; ) {
+                    if (random.nextInt(8) == 0) {
+                        out.write(data[off++]);
+                    } else {
+                        int n = Math.min(data.length - off, random.nextInt(40000));
+                        out.write(data, off, n);
+                        off += n;
+                    }
+                }
+            }
+            Fixtures.check(folder, input.getKey(), data, compressed.toByteArray());
+
+            ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+            try (InputStream in = new HuffmanInputStream(new ByteArrayInputStream(compressed.toByteArray()))) {
+                byte[] buffer = new byte[1 + random.nextInt(10000)];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    decompressed.write(buffer, 0, n);
+                }
+            }
+            assertArrayEquals(input.getKey(), data, decompressed.toByteArray());
+        }
+    }
+
+
+    /**
+     * Flushing ends a block early, so that what was written so far can be read before the
+     * stream is finished; finishing leaves the underlying stream open.
+     */
+    @Test
+    public void flushAndFinish() throws IOException {
+        byte[] data = Fixtures.inputs().get("text");
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        HuffmanOutputStream out = new HuffmanOutputStream(compressed, 1 << 14);
+        out.write(data, 0, 1000);
+        out.flush();
+        out.flush();
+
+        InputStream partial = new HuffmanInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+        byte[] first = new byte[1000];
+        int n = 0;
+        while (n < first.length) {
+            n += partial.read(first, n, first.length - n);
+        }
+        assertArrayEquals(Arrays.copyOf(data, 1000), first);
+
+        out.write(data, 1000, data.length - 1000);
+        out.finish();
+        compressed.write(42); // still open
+        byte[] file = Arrays.copyOf(compressed.toByteArray(), compressed.size() - 1);
+        Fixtures.check(folder, "text", data, file);
+        assertThrows(IOException.class, () -> out.write(1));
+
+        // skipping across blocks
+        InputStream in = new HuffmanInputStream(new ByteArrayInputStream(file));
+        assertEquals(100000, in.skip(100000));
+        assertEquals(data[100000] & 0xFF, in.read());
+        assertEquals(data.length - 100001, in.skip(data.length));
+        assertEquals(-1, in.read());
+    }
+}
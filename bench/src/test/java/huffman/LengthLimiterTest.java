@@ -0,0 +1,153 @@
+package huffman;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link LengthLimiter} against a brute-force search over every assignment of code
+ * lengths, on alphabets small enough to search.
+ *
+ * @author Jacob Gordon
+ */
+public class LengthLimiterTest {
+
+    @Test
+    public void limitedLengthsAreOptimal() {
+        Random random = new Random(5);
+        for (int trial = 0; trial < 3000; trial++) {
+            int n = 2 + random.nextInt(6);
+            int maxLength = 1;
+            while (1 << maxLength < n) {
+                maxLength++;
+            }
+            maxLength += random.nextInt(3);
+
+            // n distinct byte values, some with close counts and some far apart
+            long[] counts = new long[256];
+            int[] values = new int[n];
+            for (int i = 0; i < n; i++) {
+                int s;
+                do {
+                    s = random.nextInt(256);
+                } while (counts[s] != 0);
+                values[i] = s;
+                counts[s] = 1 + (random.nextBoolean() ? random.nextInt(5) : random.nextInt(1 << random.nextInt(20)));
+            }
+
+            byte[] lengths = LengthLimiter.limit(counts, maxLength);
+            long bits = 0;
+            for (int s = 0; s < 256; s++) {
+                if (counts[s] == 0) {
+                    assertEquals(0, lengths[s]);
+                } else {
+                    assertTrue(lengths[s] >= 1 && lengths[s] <= maxLength);
+                    bits += counts[s] * lengths[s];
+                }
+            }
+            assertTrue("Lengths must form a prefix code", kraft(lengths, maxLength) <= 1L << maxLength);
+            assertEquals("Counts " + Arrays.toString(weights(counts, values)) + " limited to " + maxLength,
+                    search(weights(counts, values), maxLength), bits);
+        }
+    }
+
+
+    @Test
+    public void fibonacciCountsRespectEveryLimit() {
+        long[] counts = new long[256];
+        long a = 1;
+        long b = 1;
+        for (int s = 0; s < 60; s++) {
+            counts[s] = a;
+            long next = a + b;
+            a = b;
+            b = next;
+        }
+        for (int maxLength : new int[] {8, 11, 12, 15, 32}) {
+            byte[] lengths = LengthLimiter.limit(counts, maxLength);
+            for (int s = 0; s < 60; s++) {
+                assertTrue(lengths[s] >= 1 && lengths[s] <= maxLength);
+            }
+            assertTrue(kraft(lengths, maxLength) <= 1L << maxLength);
+            // a canonical code can be built from them
+            new CanonicalCode(lengths);
+
+            LengthLimiter.Report report = LengthLimiter.report(counts, maxLength);
+            assertTrue(report.getLimitedBits() >= report.getOptimalBits());
+        }
+    }
+
+
+    @Test
+    public void fewValues() {
+        assertArrayEquals(new byte[256], LengthLimiter.limit(new long[256], 8));
+        long[] counts = new long[256];
+        counts[42] = 1000;
+        assertEquals(1, LengthLimiter.limit(counts, 8)[42]);
+        counts[7] = 1;
+        byte[] lengths = LengthLimiter.limit(counts, 1);
+        assertEquals(1, lengths[42]);
+        assertEquals(1, lengths[7]);
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyValuesForTheLimit() {
+        long[] counts = new long[256];
+        for (int s = 0; s < 5; s++) {
+            counts[s] = 1;
+        }
+        LengthLimiter.limit(counts, 2);
+    }
+
+
+    /**
+     * Returns the Kraft sum of some code lengths, scaled by 2^maxLength to keep it exact.
+     */
+    private static long kraft(byte[] lengths, int maxLength) {
+        long sum = 0;
+        for (byte length : lengths) {
+            if (length > 0) {
+                sum += 1L << (maxLength - length);
+            }
+        }
+        return sum;
+    }
+
+
+    private static long[] weights(long[] counts, int[] values) {
+        long[] weights = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            weights[i] = counts[values[i]];
+        }
+        return weights;
+    }
+
+
+    /**
+     * Returns the fewest bits any prefix code with no code longer than maxLength takes to
+     * encode the given counts, by trying every assignment of lengths.
+     */
+    private static long search(long[] weights, int maxLength) {
+        return search(weights, maxLength, 0, 0, 0, Long.MAX_VALUE);
+    }
+
+
+    private static long search(long[] weights, int maxLength, int i, long kraft, long bits, long best) {
+        if (kraft > 1L << maxLength || bits >= best) {
+            return best;
+        } else if (i == weights.length) {
+            return bits;
+        }
+        for (int length = 1; length <= maxLength; length++) {
+            best = search(weights, maxLength, i + 1, kraft + (1L << (maxLength - length)),
+                    bits + weights[i] * length, best);
+        }
+        return best;
+    }
+}
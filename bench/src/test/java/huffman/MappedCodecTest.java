@@ -0,0 +1,74 @@
+package huffman;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Compresses and decompresses files through {@link MappedCodec}, with windows small enough
+ * that codes and headers straddle the edge between one mapped window and the next.
+ *
+ * @author Jacob Gordon
+ */
+public class MappedCodecTest {
+
+    private static final int[] WINDOWS = {1000, 65537, MappedCodec.WINDOW_SIZE};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void canonical() throws IOException {
+        for (int window : WINDOWS) {
+            MappedCodec codec = new MappedCodec(window);
+            for (Map.Entry<String, byte[]> input : Fixtures.inputs().entrySet()) {
+                String name = input.getKey() + " window=" + window;
+                Path in = Fixtures.write(folder, input.getKey(), input.getValue());
+                Path out = folder.getRoot().toPath().resolve(input.getKey() + Huffman.HUFF_EXT);
+                codec.compress(in, out);
+                byte[] file = Files.readAllBytes(out);
+                if (!input.getKey().equals("binary")) {
+                    assertEquals(name, Huffman.VERSION_CANONICAL, file[2]);
+                }
+
+                Path decompressed = folder.getRoot().toPath().resolve(input.getKey() + ".out");
+                codec.decompress(out, decompressed);
+                assertArrayEquals(name, input.getValue(), Files.readAllBytes(decompressed));
+                Fixtures.check(folder, name, input.getValue(), file);
+            }
+        }
+    }
+
+
+    @Test
+    public void file() throws IOException {
+        for (Map.Entry<String, byte[]> input : Fixtures.inputs().entrySet()) {
+            Path in = Fixtures.write(folder, input.getKey(), input.getValue());
+            Path out = folder.getRoot().toPath().resolve(input.getKey() + Huffman.HUFF_EXT);
+            Huffman.compress(in, out);
+            Fixtures.check(folder, input.getKey(), input.getValue(), Files.readAllBytes(out));
+        }
+    }
+
+
+    @Test
+    public void legacy() throws IOException {
+        for (int window : new int[] {1, 7, MappedCodec.WINDOW_SIZE}) {
+            for (String name : Fixtures.LEGACY) {
+                Path in = Fixtures.write(folder, name + Huffman.HUFF_EXT, Fixtures.legacy(name + Huffman.HUFF_EXT));
+                Path out = folder.getRoot().toPath().resolve(name);
+                new MappedCodec(window).decompress(in, out);
+                assertArrayEquals(name + " window=" + window, Fixtures.legacy(name), Files.readAllBytes(out));
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package huffman;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import huffman.bench.Corpus;
+
+/**
+ * Checks that {@link SizeEstimator} gives exactly the size {@link Huffman#compress(Path, Path)}
+ * writes, from empty files to files of several blocks, for data that is encoded, stored,
+ * or some of each.
+ *
+ * @author Jacob Gordon
+ */
+public class SizeEstimatorTest {
+
+    private static final int BLOCK = BlockCompressor.DEFAULT_BLOCK_SIZE;
+
+    private static final int[] LENGTHS = {0, 1, 5, 24, 1000, 65536, BLOCK - 1, BLOCK, BLOCK + 1, 5 << 20};
+
+    private static final Corpus.Shape[] SHAPES = {Corpus.Shape.TEXT, Corpus.Shape.BINARY, Corpus.Shape.RUNS};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void exact() throws IOException {
+        for (Corpus.Shape shape : SHAPES) {
+            for (int length : LENGTHS) {
+                String name = shape + " " + length;
+                byte[] data = new Corpus(shape, length).generate(length);
+                Path in = Fixtures.write(folder, "data", data);
+                Path out = folder.getRoot().toPath().resolve("data" + Huffman.HUFF_EXT);
+                Huffman.compress(in, out);
+
+                SizeEstimator.Estimate estimate = SizeEstimator.estimate(in);
+                assertFalse(name, estimate.isSampled());
+                assertEquals(name, length, estimate.getLength());
+                assertEquals(name, Files.size(out), estimate.getCompressedSize());
+                assertEquals(name, Files.readAllBytes(out)[2] == Huffman.VERSION_CANONICAL,
+                        estimate.isWorthEncoding());
+
+                if (length <= BLOCK) {
+                    Histogram histogram = new Histogram();
+                    histogram.add(data, 0, data.length);
+                    assertEquals(name, Files.size(out), SizeEstimator.estimate(histogram).getCompressedSize());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package huffman;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Decodes legacy streams with {@link SpeculativeDecoder} and checks the output against the
+ * serial decoder. Segments of a few bytes split even the small legacy test files into many
+ * segments, decoded over many rounds, so that segments are stitched, resynchronize, or
+ * never do.
+ *
+ * @author Jacob Gordon
+ */
+public class SpeculativeDecoderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void legacy() throws IOException {
+        for (String name : Fixtures.LEGACY) {
+            Path in = Fixtures.write(folder, name + Huffman.HUFF_EXT, Fixtures.legacy(name + Huffman.HUFF_EXT));
+            Path out = folder.getRoot().toPath().resolve(name);
+            new SpeculativeDecoder(4).decompress(in, out);
+            assertArrayEquals(name, Fixtures.legacy(name), Files.readAllBytes(out));
+        }
+    }
+
+
+    @Test
+    public void segments() throws IOException {
+        for (String name : Fixtures.LEGACY) {
+            byte[] legacy = Fixtures.legacy(name + Huffman.HUFF_EXT);
+            ByteArrayOutputStream serial = new ByteArrayOutputStream();
+            Huffman.decompress(new ByteArrayInputStream(legacy), serial);
+
+            Path in = Fixtures.write(folder, name + Huffman.HUFF_EXT, legacy);
+            Path out = folder.getRoot().toPath().resolve(name);
+            for (int segmentSize : new int[] {1, 2, 7, 64}) {
+                for (int parallelism : new int[] {1, 3}) {
+                    new SpeculativeDecoder(parallelism, segmentSize).decompress(in, out);
+                    assertArrayEquals(name + " segment=" + segmentSize + " parallelism=" + parallelism,
+                            serial.toByteArray(), Files.readAllBytes(out));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Decodes a stream of 3-bit codes in 1-byte segments. A segment that starts 2 bits into
+     * a code stays out of step to its end, as every code is the same length, and is decoded
+     * again in full; one that starts 1 bit in soon meets the one bit pattern that is not a
+     * code, and records no boundaries at all.
+     */
+    @Test
+    public void outOfStep() throws IOException {
+        // codes 000 to 110 for bytes 0 to 6; 111 is not a code
+        int[] codes = new int[256];
+        byte[] lengths = new byte[256];
+        for (int s = 0; s < 7; s++) {
+            codes[s] = s;
+            lengths[s] = 3;
+        }
+        TableDecoder decoder = new TableDecoder(codes, lengths);
+
+        // 3, 4, 3, 4, ...: 011 100 011 100
+        int count = 800;
+        ByteArrayOutputStream bits = new ByteArrayOutputStream();
+        BitWriter writer = new BitWriter(bits);
+        byte[] expected = new byte[count];
+        for (int i = 0; i < count; i++) {
+            expected[i] = (byte) (i % 2 == 0 ? 3 : 4);
+            writer.writeBits(expected[i], 3);
+        }
+        writer.flush();
+        ByteBuffer data = ByteBuffer.wrap(bits.toByteArray());
+
+        // bit 8 is 2 bits into a code, bit 16 is 1 bit in, and bit 24 starts one
+        SpeculativeDecoder.Segment late = SpeculativeDecoder.Segment.decode(data, 8, 16, 8, decoder);
+        assertNotSame(late, late.stitch(data, 9, 8, decoder));
+        SpeculativeDecoder.Segment invalid = SpeculativeDecoder.Segment.decode(data, 16, 24, 8, decoder);
+        assertEquals(0, invalid.recorded);
+        SpeculativeDecoder.Segment aligned = SpeculativeDecoder.Segment.decode(data, 24, 32, 8, decoder);
+        assertSame(aligned, aligned.stitch(data, 24, 8, decoder));
+
+        for (int parallelism : new int[] {1, 3}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new SpeculativeDecoder(parallelism, 1).decode(data, 0, count, decoder, out);
+            assertArrayEquals("parallelism=" + parallelism, expected, out.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package huffman;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses streams of unknown length in a single pass, for pipes, sockets and logs.
+ *
+ * <p>The static formats need every byte counted before the first one is encoded. Here,
+ * encoder and decoder instead keep the same running model: counts of the bytes seen so far,
+ * starting at 1 for every byte value. The input is encoded in chunks of at most a fixed
+ * interval, each with the canonical code built from the model as it stood before the
+ * chunk; once a chunk is done, both sides add its bytes to the counts and rebuild the code.
+ * No tree or code table is ever written, memory use depends only on the interval, and
+ * output starts after the first chunk. Counts are halved once their total passes
+ * {@link #MAX_TOTAL}, so the code follows changes in the data.</p>
+ *
+ * <p>The output is a .huff file in the adaptive format ({@link Huffman#VERSION_ADAPTIVE}):
+ * <ul>
+ * <li>the magic bytes {@link Huffman#MAGIC} and the version byte
+ * <li>the interval, as a varint
+ * <li>each chunk: its length and then its encoded size as varints, then the encoded bytes,
+ * padded to a whole byte
+ * <li>a chunk length of 0
+ * </ul>
+ * Chunks are byte-aligned and carry their size, so a decoder never has to read past the
+ * end of a chunk to decode it. A chunk is written whenever the interval fills up, and also
+ * whenever the input has nothing more available for now, so that what was read so far
+ * reaches the other end of a pipe without waiting for more; the decoder flushes its output
+ * after such a short chunk.</p>
+ *
+ * @author Jacob Gordon
+ */
+public class AdaptiveHuffman {
+
+    /**
+     * Interval used unless another is given.
+     */
+    public static final int DEFAULT_INTERVAL = 1 << 15;
+
+    /**
+     * Largest interval allowed.
+     */
+    public static final int MAX_INTERVAL = 1 << 24;
+
+    /**
+     * Total of the model's counts past which they are all halved.
+     */
+    static final long MAX_TOTAL = 1 << 20;
+
+    private AdaptiveHuffman() {
+        // static methods only
+    }
+
+
+    /**
+     * Compresses the given input stream with the default interval, writing to the given
+     * output stream.
+     *
+     * @param in the InputStream, read until it ends.
+     * @param out the OutputStream.
+     * @throws IOException If there are any read/write errors.
+     */
+    public static void compress(InputStream in, OutputStream out) throws IOException {
+        compress(in, out, DEFAULT_INTERVAL);
+    }
+
+
+    /**
+     * Compresses the given input stream, writing to the given output stream.
+     *
+     * @param in the InputStream, read until it ends.
+     * @param out the OutputStream.
+     * @param interval the most bytes encoded with one code, up to {@link #MAX_INTERVAL}.
+     * @throws IOException If there are any read/write errors.
+     */
+    public static void compress(InputStream in, OutputStream out, int interval) throws IOException {
+        if (interval < 1 || interval > MAX_INTERVAL) {
+            throw new IllegalArgumentException("Interval must be from 1 to " + MAX_INTERVAL);
+        }
+        out.write(Huffman.MAGIC);
+        out.write(Huffman.VERSION_ADAPTIVE);
+        Huffman.writeLength(out, interval);
+        ChunkEncoder encoder = new ChunkEncoder(out);
+        byte[] chunk = new byte[interval];
+        int length = 0;
+        int n;
+        while ((n = in.read(chunk, length, interval - length)) != -1) {
+            length += n;
+            if (length == interval) {
+                encoder.write(chunk, 0, length);
+                length = 0;
+            } else if (length > 0 && in.available() == 0) {
+                // nothing more to read for now: send what there is
+                encoder.write(chunk, 0, length);
+                length = 0;
+                out.flush();
+            }
+        }
+        encoder.write(chunk, 0, length);
+        Huffman.writeLength(out, 0);
+        out.flush();
+    }
+
+
+    /**
+     * Decompresses an adaptive .huff stream, writing to the given output stream.
+     *
+     * @param in the InputStream, just past the magic and version bytes.
+     * @param out the OutputStream.
+     * @throws IOException If there are any read/write errors, or the data is invalid.
+     */
+    public static void decompress(InputStream in, OutputStream out) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        long interval = Huffman.readLength(data);
+        if (interval < 1 || interval > MAX_INTERVAL) {
+            throw new IOException("Invalid interval " + interval);
+        }
+        Model model = new Model();
+        byte[] chunk = new byte[(int) interval];
+        byte[] payload = new byte[0];
+        while (true) {
+            long length = Huffman.readLength(data);
+            if (length == 0) {
+                break;
+            }
+            long size = Huffman.readLength(data);
+            if (length > interval || size > 4 * length) {
+                throw new IOException("Invalid chunk sizes " + length + ", " + size);
+            }
+            if (payload.length < size) {
+                payload = new byte[(int) size];
+            }
+            data.readFully(payload, 0, (int) size);
+            model.getDecoder().decode(new BitReader(ByteBuffer.wrap(payload, 0, (int) size)), chunk, 0,
+                    (int) length);
+            out.write(chunk, 0, (int) length);
+            if (length < interval) {
+                out.flush();
+            }
+            model.update(chunk, 0, (int) length);
+        }
+        out.flush();
+    }
+
+
+    /**
+     * Encodes chunks with a running model and writes them out.
+     */
+    static class ChunkEncoder {
+        private final OutputStream out;
+        private final Model model = new Model();
+        private final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        private final BitWriter bits = new BitWriter(encoded);
+
+        ChunkEncoder(OutputStream out) {
+            this.out = out;
+        }
+
+        /**
+         * Encodes the given bytes as one chunk, then adds them to the model.
+         *
+         * @param bytes the array holding the chunk.
+         * @param off where the chunk starts.
+         * @param len the length of the chunk; nothing is written if it is 0.
+         * @throws IOException If there are any write errors.
+         */
+        void write(byte[] bytes, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            model.getCode().encode(bytes, off, len, bits);
+            bits.flush();
+            Huffman.writeLength(out, len);
+            Huffman.writeLength(out, encoded.size());
+            encoded.writeTo(out);
+            encoded.reset();
+            model.update(bytes, off, len);
+        }
+    }
+
+
+    /**
+     * Counts of the bytes seen so far, and the code built from them.
+     */
+    static class Model {
+        private final long[] counts = new long[256];
+        private long total;
+        private CanonicalCode code;
+        private TableDecoder decoder;
+
+        Model() {
+            for (int s = 0; s < 256; s++) {
+                counts[s] = 1;
+            }
+            total = 256;
+            rebuild();
+        }
+
+        CanonicalCode getCode() {
+            return code;
+        }
+
+        TableDecoder getDecoder() {
+            if (decoder == null) {
+                decoder = code.newDecoder();
+            }
+            return decoder;
+        }
+
+        /**
+         * Adds the given bytes to the counts and rebuilds the code.
+         *
+         * @param bytes the array holding the bytes.
+         * @param off where they start.
+         * @param len how many there are.
+         */
+        void update(byte[] bytes, int off, int len) {
+            Histogram histogram = new Histogram();
+            histogram.add(bytes, off, len);
+            for (int s = 0; s < 256; s++) {
+                counts[s] += histogram.getCount(s);
+            }
+            total += len;
+            while (total > MAX_TOTAL) {
+                // halve every count, keeping each at least 1
+                total = 0;
+                for (int s = 0; s < 256; s++) {
+                    counts[s] = (counts[s] + 1) / 2;
+                    total += counts[s];
+                }
+            }
+            rebuild();
+        }
+
+        private void rebuild() {
+            code = new Huffman(counts).getCanonicalCode();
+            decoder = null;
+        }
+    }
+}
@@ -2,18 +2,33 @@ package huffman;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Represents a BitReader.
  *
+ * <p>Bits are read most significant first out of each byte. Unread bits are kept in a
+ * 64-bit buffer, which is topped up a whole word at a time from a byte buffer: either
+ * the caller's ByteBuffers, or a reusable array filled with bulk reads from an input
+ * stream. Past the end of the input, every bit reads as 0.</p>
+ *
  * @author Cam Moore
  *
  */
 public class BitReader implements AutoCloseable {
+
+    /**
+     * Size of the array used to read from an input stream.
+     */
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+
     private boolean done;
-    private byte buffer = 0;
-    private int bits = 0;
-    private InputStream in;
+    private long buffer = 0; // unread bits, left-aligned
+    private int bits = 0; // bits in the buffer
+    private boolean eof;
+    private ByteBuffer source; // bytes not yet moved into the bit buffer
+    private long base; // bytes of input before the start of source
+    private InputStream in; // refills source, or null if reading a ByteBuffer
 
 
     /**
@@ -26,7 +41,21 @@ public class BitReader implements AutoCloseable {
         this.done = false;
         this.bits = 0;
         this.in = in;
-        fillBuffer();
+        this.source = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+        this.source.flip();
+    }
+
+
+    /**
+     * Creates a BitReader for the remaining bytes of the given buffer. The buffer's
+     * own position is left where it is.
+     *
+     * @param source The buffer to read from.
+     */
+    public BitReader(ByteBuffer source) {
+        this.done = false;
+        this.bits = 0;
+        this.source = source.slice();
     }
 
 
@@ -35,20 +64,136 @@ public class BitReader implements AutoCloseable {
      */
     @Override
     public void close() throws IOException {
-        in.close();
+        if (in != null) {
+            in.close();
+        }
     }
 
 
     /**
-     * Fills the internal buffer.
+     * Tops up the internal buffer with whole bytes until it holds at least
+     * the given number of bits, or the input runs out.
      *
+     * @param n the number of bits needed, at most 32.
      * @throws IOException if there is a problem with the input stream.
      */
-    private void fillBuffer() throws IOException {
-        this.buffer = 0;
-        int byteValue = in.read();
-        this.buffer = (byte) (byteValue & 0x00ff);
-        this.bits = 0;
+    private void fillBuffer(int n) throws IOException {
+        while (bits < n && !eof) {
+            if (source.remaining() >= 8) {
+                // take as many whole bytes of the next word as fit
+                int take = (63 - bits) >>> 3;
+                long word = source.getLong(source.position());
+                source.position(source.position() + take);
+                buffer |= word >>> bits;
+                bits += take << 3;
+                buffer &= -1L << (64 - bits);
+            } else if (source.hasRemaining()) {
+                buffer |= (long) (source.get() & 0x00ff) << (56 - bits);
+                bits += 8;
+            } else if (!refill()) {
+                eof = true;
+            }
+        }
+    }
+
+
+    /**
+     * Returns the buffer to read from once the current one is used up. A reader for a
+     * single ByteBuffer has nothing more to read; a subclass can override this to read
+     * a sequence of buffers, such as windows mapped from a large file, as one stream.
+     *
+     * @return the next buffer, read from its position to its limit, or null at the end
+     *     of the input.
+     * @throws IOException if the next buffer cannot be had.
+     */
+    protected ByteBuffer nextBuffer() throws IOException {
+        return null;
+    }
+
+
+    /**
+     * Moves on to the next buffer: the next chunk of the input stream, read into the
+     * emptied byte buffer, or else whatever {@link #nextBuffer()} returns.
+     *
+     * @return false if there is nothing left to read.
+     * @throws IOException if there is a problem with the input stream.
+     */
+    private boolean refill() throws IOException {
+        if (in == null) {
+            ByteBuffer next = nextBuffer();
+            if (next == null) {
+                return false;
+            }
+            base += source.limit();
+            source = next.slice();
+            return true;
+        }
+        base += source.limit();
+        source.clear();
+        int n = in.read(source.array(), 0, source.capacity());
+        source.limit(Math.max(n, 0));
+        return n > 0;
+    }
+
+
+    /**
+     * Returns the next n bits without consuming them, first bit in the
+     * most significant position. Bits past the end of the stream read as 0.
+     *
+     * @param n the number of bits to look at, from 1 to 32.
+     * @return the next n bits as the low bits of an int.
+     * @throws IOException if there is a problem with the input stream.
+     */
+    public int peekBits(int n) throws IOException {
+        if (bits < n) {
+            fillBuffer(n);
+        }
+        return (int) (buffer >>> (64 - n));
+    }
+
+
+    /**
+     * Consumes n bits, usually after looking at them with {@link #peekBits(int)}.
+     *
+     * @param n the number of bits to skip, from 0 to 32.
+     * @throws IOException if there is a problem with the input stream.
+     */
+    public void skipBits(int n) throws IOException {
+        if (bits < n) {
+            fillBuffer(n);
+        }
+        buffer <<= n;
+        bits -= n;
+        if (bits < 0) {
+            // ran past the end of the stream
+            bits = 0;
+            done = true;
+        }
+    }
+
+
+    /**
+     * Reads the next n bits, first bit in the most significant position.
+     *
+     * @param n the number of bits to read, from 1 to 32.
+     * @return the bits as the low bits of an int.
+     * @throws IOException if there is a problem with the input stream.
+     */
+    public int readBits(int n) throws IOException {
+        int value = peekBits(n);
+        skipBits(n);
+        return value;
+    }
+
+
+    /**
+     * Returns the number of bits consumed so far, counting from the start of the
+     * stream or buffer this reader was created for.
+     *
+     * @return the position of the next bit.
+     */
+    public long getBitPosition() {
+        return (base + source.position()) * 8 - bits;
     }
 
 
@@ -78,57 +223,46 @@ public class BitReader implements AutoCloseable {
      * @return 1 or 0 for the bit.
      */
     public int readAsInt() {
-        //CHECKSTYLE:OFF
-        int bit = buffer & 0x80;
-        //CHECKSTYLE:ON
-        buffer <<= 1;
-        bits++;
-        if (bits == 8) {
+        try {
+            return readBits(1);
+        } catch (IOException e) {
             try {
-                fillBuffer();
-            } catch (IOException e) {
-                try {
-                    done = true;
-                    in.close();
-                } catch (IOException e1) {
-                    // its ok.
-                }
+                done = true;
+                close();
+            } catch (IOException e1) {
+                // its ok.
             }
-            bits = 0;
+            return 0;
         }
-        return bit / 128;
     }
 
 
     /**
-     * Reads a Byte from the input stream.
+     * Reads a byte from the input stream.
      *
-     * @return a Byte from the input stream.
-     */
-    public Byte readByte() {
-        byte buf = 0;
-        for (int i = 0; i < 8; i++) {
-            buf <<= 1;
-            int val = readAsInt();
-            buf |= val;
+     * @return a byte from the input stream.
+     */
+    public byte readByte() {
+        try {
+            return (byte) readBits(8);
+        } catch (IOException e) {
+            done = true;
+            return 0;
         }
-        return buf;
     }
 
 
     /**
-     * Returns an Integer from the input stream.
+     * Returns a big-endian int from the next four bytes of the input stream.
      *
-     * @return an Integer from the input stream.
-     */
-    public Integer readInt() {
-        int value = 0;
-        for (int i = 0; i <= 3; i++) {
-            byte b = readByte();
-            value |= (b & 0x00ff);
-            value *= 256;
+     * @return an int from the input stream.
+     */
+    public int readInt() {
+        try {
+            return readBits(32);
+        } catch (IOException e) {
+            done = true;
+            return 0;
         }
-        value /= 256;
-        return value;
     }
-}
\ No newline at end of file
+}
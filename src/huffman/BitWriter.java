@@ -2,12 +2,13 @@ package huffman;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
- * Writes single bits to a binary output stream. Does not buffer more than
- * a single byte at a time (though the underlying output stream might itself
- * be buffered). Do not intersperse writes to the underlying stream with writes
- * through this BitWriter.
+ * Writes bits to a binary output stream. Bits are gathered in a 64-bit buffer and
+ * moved four bytes at a time into a reusable byte array, which is written to the
+ * underlying stream in bulk whenever it fills. Do not intersperse writes to the
+ * underlying stream with writes through this BitWriter.
  *
  * <p>IMPORTANT: Since only whole bytes can be written to the underlying output
  * stream, you need to indicate that you are done writing bits. Call flush()
@@ -19,8 +20,15 @@ import java.io.OutputStream;
  */
 public class BitWriter implements AutoCloseable {
 
-    byte buffer = 0;
+    /**
+     * Size of the array of whole bytes waiting to be written out.
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    long buffer = 0;
     int bits = 0; // bits in the buffer
+    byte[] bytes = new byte[OUTPUT_BUFFER_SIZE]; // whole bytes not yet written
+    int count = 0; // bytes used in the array
     OutputStream out;
 
     /*
@@ -32,7 +40,8 @@ public class BitWriter implements AutoCloseable {
      *
      * ???????1 ??????10 ?????101 ????1011
      *
-     * Either way, the byte looks the same after 8 additions.
+     * Either way, the bytes look the same once they are taken off the left. The buffer
+     * never holds more than 63 bits: as soon as it reaches 32, the oldest 32 go out.
      */
 
 
@@ -45,6 +54,28 @@ public class BitWriter implements AutoCloseable {
     }
 
 
+    /**
+     * Constructs a BitWriter that will put whole bytes into the given buffer. The buffer
+     * must have room for every byte written; writing past its limit throws a
+     * {@link java.nio.BufferOverflowException}.
+     *
+     * @param dst the buffer to write to, from its position on.
+     */
+    public BitWriter(final ByteBuffer dst) {
+        this.out = new OutputStream() {
+            @Override
+            public void write(int b) {
+                dst.put((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                dst.put(b, off, len);
+            }
+        };
+    }
+
+
     /**
      * Writes the given boolean as a bit to the underlying stream.
      * <code>true</code> == 1 and <code>false</code> == 0.
@@ -53,7 +84,7 @@ public class BitWriter implements AutoCloseable {
      * @throws IOException If cannot write to underlying stream.
      */
     public void write(boolean bit) throws IOException {
-        this.write((bit) ? 1 : 0);
+        this.writeBits((bit) ? 1 : 0, 1);
     }
 
 
@@ -66,49 +97,80 @@ public class BitWriter implements AutoCloseable {
      * @throws IOException If cannot write to underlying stream.
      */
     public void write(int bit) throws IOException {
-        bit &= 0x1; // mask all but last of 32 bits so bit is only 1 or 0
-        buffer <<= 1; // shift buffer over 1 bit
-        buffer |= bit; // merge bit into buffer
-        bits++;
-        if (bits == 8) {
-            this.flush(); // time to write out; resets buffer and bits
-        }
+        this.writeBits(bit & 0x1, 1); // mask all but last of 32 bits so bit is only 1 or 0
     }
 
 
     /**
-     * Writes the given byte one bit a time. This is convenience method that allows
+     * Writes the given byte as 8 bits. This is convenience method that allows
      * a user to also write more traditional-sized data through this BitWriter.
      * @param b the byte to write.
      * @throws IOException If cannot write to stream.
      */
     public void writeByte(byte b) throws IOException {
-        /* would have used a java.util.BitSet here, but valueOf not in Java 1.6 */
-        // manually cycle through bits in b...
-        for (int i = 7; i >= 0; i--) { // loop through bit positions: 76543210
-            int mask = 0x01 << i; // mask out all except bit at position i
-            int bit = b & mask;
-            bit >>>= i; // shift remaining bit to position 0 (right-most)
-            this.write(bit);
+        this.writeBits(b & 0xff, 8);
+    }
+
+
+    /**
+     * Writes the low bits of the given code, most significant of them first.
+     *
+     * @param code the bits to write, right-aligned.
+     * @param length how many of the code's low bits to write, from 0 to 32.
+     * @throws IOException If cannot write to stream.
+     */
+    public void writeBits(int code, int length) throws IOException {
+        buffer = (buffer << length) | (code & ((1L << length) - 1));
+        bits += length;
+        if (bits >= 32) {
+            // move the oldest 32 bits out as 4 whole bytes
+            if (count > bytes.length - 4) {
+                drain();
+            }
+            bits -= 32;
+            int word = (int) (buffer >>> bits);
+            bytes[count] = (byte) (word >>> 24);
+            bytes[count + 1] = (byte) (word >>> 16);
+            bytes[count + 2] = (byte) (word >>> 8);
+            bytes[count + 3] = (byte) word;
+            count += 4;
         }
     }
 
 
     /**
-     * Writes the bits in the byte-long buffer to the underlying output stream. If
-     * the buffer is not full yet, pads the
-     * remainder of the byte with 0 bits.
+     * Writes the whole bytes gathered so far to the underlying stream.
+     *
+     * @throws IOException If cannot write to stream.
+     */
+    private void drain() throws IOException {
+        out.write(bytes, 0, count);
+        count = 0;
+    }
+
+
+    /**
+     * Writes all bits written so far to the underlying output stream. If they do
+     * not fill a whole number of bytes, pads the remainder of the last byte
+     * with 0 bits.
      *
      * @throws IOException If cannot write to stream.
      */
     public void flush() throws IOException {
         // conceptually, may need to "pad" remainder of byte first.
         // (Actually, just shift left, since 0s will come in on right)
-        int padding = 8 - bits;
+        int padding = (8 - bits % 8) % 8;
         buffer <<= padding;
-        out.write(buffer);
+        bits += padding;
+        if (count > bytes.length - 4) {
+            drain();
+        }
+        while (bits > 0) {
+            bits -= 8;
+            bytes[count++] = (byte) (buffer >>> bits);
+        }
         buffer = 0;
-        bits = 0;
+        drain();
     }
 
 
@@ -120,4 +182,4 @@ public class BitWriter implements AutoCloseable {
         flush();
         out.close();
     }
-}
\ No newline at end of file
+}
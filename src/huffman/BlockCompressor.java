@@ -0,0 +1,714 @@
+package huffman;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Compresses data as a sequence of independent blocks, encoding several blocks at once
+ * on a ForkJoinPool.
+ *
+ * <p>The input is cut into blocks of a fixed size (the last one may be shorter). Each
+ * block gets its own byte counts, tree and canonical code, so blocks can be encoded in
+ * any order and on any thread; they are still written out in input order. The encoded
+ * size of a block is worked out from its counts and code lengths before anything is
+ * encoded, and a block that would not shrink by at least 1/{@link #MIN_SAVING_RATIO} of
+ * its size is stored as it is; when compressing a file, stored blocks are copied straight
+ * from the input file with {@link FileChannel#transferTo}. Only a bounded
+ * number of blocks are in flight at once, so memory use depends on the block size and
+ * parallelism, not on the size of the input.</p>
+ *
+ * <p>The output is a .huff file in the block container format ({@link Huffman#VERSION_BLOCKS}):
+ * <ul>
+ * <li>the magic bytes {@link Huffman#MAGIC} and the version byte
+ * <li>a flags byte: {@link #FLAG_INDEX} if the file ends with a block index
+ * <li>the block size, as a varint
+ * <li>each block: a block type byte, its uncompressed and then its compressed size as
+ * varints, then the compressed bytes. For {@link #BLOCK_HUFFMAN}, these are the code length
+ * table followed by the encoded data, padded to a whole byte. For {@link #BLOCK_HUFFMAN4},
+ * the block's bytes are dealt out in turn to {@link #INTERLEAVED_STREAMS} sub-streams
+ * encoded with one shared code: the sizes of all but the last sub-stream come first as
+ * varints, then each sub-stream padded to a whole byte, the first one starting with the
+ * code length table. For {@link #BLOCK_STORED}, they are the block's bytes as they are
+ * <li>a block type byte of {@link #BLOCK_END}
+ * <li>the block index: the number of blocks as a 4-byte int, then for each block the offset
+ * in the file where it starts (8 bytes), the number of bytes it takes up from its type byte
+ * to the end of its payload (4 bytes), and its uncompressed size (4 bytes)
+ * <li>the offset in the file where the block index starts, as an 8-byte long
+ * </ul>
+ * All fixed-size numbers are big-endian. The index lets {@link BlockDecompressor} find
+ * every block, and where its output goes, without reading the blocks before it.</p>
+ *
+ * @author Jacob Gordon
+ */
+public class BlockCompressor {
+
+    /**
+     * Block size used unless another is given.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 21;
+
+    /**
+     * Largest block size allowed. A block this small can never need a code longer than
+     * {@link CanonicalCode#MAX_CODE_LENGTH}.
+     */
+    public static final int MAX_BLOCK_SIZE = 1 << 22;
+
+    /**
+     * Block type marking the end of the blocks.
+     */
+    public static final int BLOCK_END = 0;
+
+    /**
+     * Block type of a block encoded with its own canonical code.
+     */
+    public static final int BLOCK_HUFFMAN = 1;
+
+    /**
+     * Block type of a block encoded with its own canonical code into
+     * {@link #INTERLEAVED_STREAMS} interleaved sub-streams.
+     */
+    public static final int BLOCK_HUFFMAN4 = 2;
+
+    /**
+     * Block type of a block stored as it is, because encoding would not make it smaller.
+     */
+    public static final int BLOCK_STORED = 3;
+
+    /**
+     * Blocks are encoded only if that saves at least this fraction of their size:
+     * 64 means 1/64, or about 1.6%.
+     */
+    public static final int MIN_SAVING_RATIO = 64;
+
+    /**
+     * Number of sub-streams in a {@link #BLOCK_HUFFMAN4} block. Byte i of the block is
+     * encoded in sub-stream i % 4, so a decoder can work on four independent bit streams
+     * in the same loop and the processor can overlap their lookups.
+     */
+    public static final int INTERLEAVED_STREAMS = 4;
+
+    /**
+     * Most bytes a {@link #BLOCK_HUFFMAN4} payload has on top of its table and codes: the
+     * sizes of the sub-streams, and the padding at the end of each one.
+     */
+    private static final int INTERLEAVED_OVERHEAD = 3 * 5 + INTERLEAVED_STREAMS;
+
+    /**
+     * Header flag set when the file ends with a block index.
+     */
+    public static final int FLAG_INDEX = 1;
+
+    /**
+     * Number of bytes in each block index entry.
+     */
+    public static final int INDEX_ENTRY_SIZE = 16;
+
+    /**
+     * Number of bytes in each block.
+     */
+    private final int blockSize;
+
+    /**
+     * Number of threads used to encode blocks.
+     */
+    private final int parallelism;
+
+    /**
+     * Longest code any block may use.
+     */
+    private final int maxCodeLength;
+
+    /**
+     * Whether blocks are split into interleaved sub-streams.
+     */
+    private final boolean interleaved;
+
+
+    /**
+     * Creates a block compressor with the default block size, using every available core.
+     */
+    public BlockCompressor() {
+        this(DEFAULT_BLOCK_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+
+    /**
+     * Creates a block compressor.
+     *
+     * @param blockSize the number of input bytes in each block, up to {@link #MAX_BLOCK_SIZE}.
+     * @param parallelism the number of threads used to encode blocks.
+     */
+    public BlockCompressor(int blockSize, int parallelism) {
+        this(blockSize, parallelism, CanonicalCode.MAX_CODE_LENGTH);
+    }
+
+
+    /**
+     * Creates a block compressor whose codes are no longer than the given length. Shorter
+     * codes decode faster (up to {@link TableDecoder#PRIMARY_BITS} bits, each takes a single
+     * table lookup), at some cost in compression; see {@link LengthLimiter#report(long[], int)}.
+     *
+     * @param blockSize the number of input bytes in each block, up to {@link #MAX_BLOCK_SIZE}.
+     * @param parallelism the number of threads used to encode blocks.
+     * @param maxCodeLength the longest code allowed, from 8 to {@link CanonicalCode#MAX_CODE_LENGTH}.
+     */
+    public BlockCompressor(int blockSize, int parallelism, int maxCodeLength) {
+        this(blockSize, parallelism, maxCodeLength, true);
+    }
+
+
+    /**
+     * Creates a block compressor.
+     *
+     * @param blockSize the number of input bytes in each block, up to {@link #MAX_BLOCK_SIZE}.
+     * @param parallelism the number of threads used to encode blocks.
+     * @param maxCodeLength the longest code allowed, from 8 to {@link CanonicalCode#MAX_CODE_LENGTH}.
+     * @param interleaved true to write {@link #BLOCK_HUFFMAN4} blocks, which decode faster,
+     *     or false to write each block as a single {@link #BLOCK_HUFFMAN} stream.
+     */
+    public BlockCompressor(int blockSize, int parallelism, int maxCodeLength, boolean interleaved) {
+        if (blockSize < 1 || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size must be from 1 to " + MAX_BLOCK_SIZE);
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        if (maxCodeLength < 8 || maxCodeLength > CanonicalCode.MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("Maximum code length must be from 8 to "
+                    + CanonicalCode.MAX_CODE_LENGTH);
+        }
+        this.blockSize = blockSize;
+        this.parallelism = parallelism;
+        this.maxCodeLength = maxCodeLength;
+        this.interleaved = interleaved;
+    }
+
+
+    /**
+     * Returns the number of input bytes in each block.
+     *
+     * @return the block size.
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+
+    /**
+     * Returns the number of threads used to encode blocks.
+     *
+     * @return the parallelism.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+
+    /**
+     * Returns the longest code any block may use.
+     *
+     * @return the maximum code length in bits.
+     */
+    public int getMaxCodeLength() {
+        return maxCodeLength;
+    }
+
+
+    /**
+     * Returns whether blocks are split into interleaved sub-streams.
+     *
+     * @return true if blocks are written as {@link #BLOCK_HUFFMAN4}.
+     */
+    public boolean isInterleaved() {
+        return interleaved;
+    }
+
+
+    /**
+     * Compresses the given file into the given output file.
+     *
+     * @param in the file to compress.
+     * @param out the file to write; replaced if it exists.
+     * @return the job's stats, if metrics are enabled.
+     * @throws IOException If cannot read/write files.
+     */
+    public CodecStats compress(Path in, Path out) throws IOException {
+        CodecStats stats = CodecStats.begin(true);
+        compress(in, out, stats);
+        return stats.end();
+    }
+
+
+    /**
+     * Compresses the given file into the given output file, as part of a job.
+     *
+     * @param in the file to compress.
+     * @param out the file to write; replaced if it exists.
+     * @param stats the job's stats.
+     * @throws IOException If cannot read/write files.
+     */
+    void compress(Path in, Path out, CodecStats stats) throws IOException {
+        try (FileChannel source = FileChannel.open(in, StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream fileout = new BufferedOutputStream(Channels.newOutputStream(target));
+            compress(Channels.newInputStream(source), fileout, source, target, stats);
+            long start = stats.time();
+            fileout.flush();
+            stats.stop(CodecStats.Phase.WRITE, start);
+        }
+    }
+
+
+    /**
+     * Compresses the given input stream, writing to the given output stream.
+     *
+     * @param in the InputStream.
+     * @param out the OutputStream.
+     * @return the job's stats, if metrics are enabled.
+     * @throws IOException If there are any read/write error.
+     */
+    public CodecStats compress(InputStream in, OutputStream out) throws IOException {
+        CodecStats stats = CodecStats.begin(true);
+        compress(in, out, null, null, stats);
+        return stats.end();
+    }
+
+
+    /**
+     * Compresses the given input stream, writing to the given output stream, as part of
+     * a job.
+     *
+     * @param in the InputStream.
+     * @param out the OutputStream.
+     * @param stats the job's stats.
+     * @throws IOException If there are any read/write error.
+     */
+    void compress(InputStream in, OutputStream out, CodecStats stats) throws IOException {
+        compress(in, out, null, null, stats);
+    }
+
+
+    /**
+     * Compresses the given input stream, writing to the given output stream. If the input
+     * stream reads a file and the output stream writes one, stored blocks are copied from
+     * one file to the other directly.
+     *
+     * @param in the InputStream.
+     * @param out the OutputStream.
+     * @param source the file in reads from, or null.
+     * @param target the file out writes to, or null.
+     * @param stats the job's stats.
+     * @throws IOException If there are any read/write error.
+     */
+    private void compress(InputStream in, OutputStream out, FileChannel source, FileChannel target,
+                          final CodecStats stats) throws IOException {
+        CountingOutputStream counted = new CountingOutputStream(out);
+        writeHeader(counted, FLAG_INDEX, blockSize);
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        DataOutputStream index = new DataOutputStream(entries);
+
+        long read = 0;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            // blocks being encoded, oldest first
+            Deque<ForkJoinTask<EncodedBlock>> pending = new ArrayDeque<ForkJoinTask<EncodedBlock>>();
+            while (true) {
+                final byte[] block = new byte[blockSize];
+                long start = stats.time();
+                final int length = readBlock(in, block);
+                stats.stop(CodecStats.Phase.READ, start);
+                if (length == 0) {
+                    break;
+                }
+                final long offset = read;
+                read += length;
+                if (pending.size() == 2 * parallelism) {
+                    writeBlock(await(pending.removeFirst()), counted, index, source, target, stats);
+                }
+                pending.addLast(pool.submit(() -> {
+                    EncodedBlock encoded = encodeBlock(block, length, maxCodeLength, interleaved, stats);
+                    encoded.offset = offset;
+                    return encoded;
+                }));
+            }
+            while (!pending.isEmpty()) {
+                writeBlock(await(pending.removeFirst()), counted, index, source, target, stats);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        counted.write(BLOCK_END);
+
+        long indexOffset = counted.count;
+        DataOutputStream trailer = new DataOutputStream(counted);
+        trailer.writeInt(entries.size() / INDEX_ENTRY_SIZE);
+        entries.writeTo(trailer);
+        trailer.writeLong(indexOffset);
+        trailer.flush();
+        stats.addBytesIn(read);
+        stats.addBytesOut(counted.count);
+    }
+
+
+    /**
+     * Writes the header of a block container.
+     *
+     * @param out the OutputStream.
+     * @param flags the header flags.
+     * @param blockSize the block size.
+     * @throws IOException If there are any write errors.
+     */
+    static void writeHeader(OutputStream out, int flags, int blockSize) throws IOException {
+        out.write(Huffman.MAGIC);
+        out.write(Huffman.VERSION_BLOCKS);
+        out.write(flags);
+        Huffman.writeLength(out, blockSize);
+    }
+
+
+    /**
+     * Waits for a task to finish.
+     *
+     * @param task the task.
+     * @param <T> the type of the task's result.
+     * @return the task's result.
+     * @throws IOException If the task failed with one, or was interrupted.
+     */
+    static <T> T await(ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a block");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+
+    /**
+     * Fills the given array from the input stream, stopping early only at the end of
+     * the stream.
+     *
+     * @param in the InputStream.
+     * @param block the array to fill.
+     * @return the number of bytes read; 0 at the end of the stream.
+     * @throws IOException If there are any read errors.
+     */
+    private static int readBlock(InputStream in, byte[] block) throws IOException {
+        int length = 0;
+        while (length < block.length) {
+            int n = in.read(block, length, block.length - length);
+            if (n == -1) {
+                break;
+            }
+            length += n;
+        }
+        return length;
+    }
+
+
+    /**
+     * Returns whether encoding some data saves enough to be worth it, rather than storing
+     * the data as it is.
+     *
+     * @param encoded the number of bytes the data takes up encoded.
+     * @param length the number of bytes of data.
+     * @return true if encoding saves at least 1/{@link #MIN_SAVING_RATIO} of the data's size.
+     */
+    static boolean isWorthEncoding(long encoded, long length) {
+        return length - encoded >= Math.max(1, length / MIN_SAVING_RATIO);
+    }
+
+
+    /**
+     * Returns the size of a whole container, as {@link #compress(Path, Path)} writes it
+     * with its index.
+     *
+     * @param records the total size of the blocks, from each type byte to the end of
+     *     each payload.
+     * @param blocks the number of blocks.
+     * @param blockSize the block size.
+     * @return the number of bytes.
+     */
+    static long containerSize(long records, long blocks, int blockSize) {
+        // header, blocks, end of blocks, then the index
+        return Huffman.MAGIC.length + 2 + Huffman.lengthSize(blockSize) + records
+                + 1 + 4 + blocks * INDEX_ENTRY_SIZE + 8;
+    }
+
+
+    /**
+     * Returns the size of a container in which every block is stored.
+     *
+     * @param length the length of the data.
+     * @param blockSize the block size.
+     * @return the number of bytes.
+     */
+    static long storedSize(long length, int blockSize) {
+        long blocks = (length + blockSize - 1) / blockSize;
+        long records = length;
+        if (blocks > 0) {
+            long last = length - (blocks - 1) * blockSize;
+            records += (blocks - 1) * (1 + 2 * Huffman.lengthSize(blockSize)) + 1 + 2 * Huffman.lengthSize(last);
+        }
+        return containerSize(records, blocks, blockSize);
+    }
+
+
+    /**
+     * Returns how many bytes {@link #encodeBlock} makes of a block when encoding into
+     * interleaved sub-streams, from the type byte to the end of the payload, without
+     * encoding it.
+     *
+     * @param counts the number of times each byte value occurs in each sub-stream:
+     *     counts[i] for bytes i, i + {@link #INTERLEAVED_STREAMS}, and so on.
+     * @param length the number of bytes in the block.
+     * @param maxCodeLength the longest code allowed.
+     * @return the number of bytes.
+     */
+    static long recordSize(long[][] counts, int length, int maxCodeLength) {
+        long[] total = new long[256];
+        for (long[] stream : counts) {
+            for (int s = 0; s < 256; s++) {
+                total[s] += stream[s];
+            }
+        }
+        CanonicalCode code = new Huffman(total).getCanonicalCode(maxCodeLength);
+        long size;
+        if (!isWorthEncoding((code.getEncodedBits(total) + 7) / 8 + INTERLEAVED_OVERHEAD, length)) {
+            size = length;
+        } else {
+            byte[] lengths = code.getLengths();
+            size = 0;
+            for (int i = 0; i < INTERLEAVED_STREAMS; i++) {
+                // the first sub-stream starts with the table
+                long bits = i == 0 ? code.getTableBits() : 0;
+                for (int s = 0; s < 256; s++) {
+                    bits += counts[i][s] * lengths[s];
+                }
+                size += (bits + 7) / 8;
+                if (i < INTERLEAVED_STREAMS - 1) {
+                    size += Huffman.lengthSize((bits + 7) / 8);
+                }
+            }
+        }
+        return 1 + Huffman.lengthSize(length) + Huffman.lengthSize(size) + size;
+    }
+
+
+    /**
+     * Encodes one block with its own canonical code, or stores it if that would not save
+     * enough.
+     *
+     * @param block the data.
+     * @param length the number of bytes of data in the array.
+     * @param maxCodeLength the longest code allowed.
+     * @param interleaved true to encode into interleaved sub-streams.
+     * @param stats the stats of the job the block is part of.
+     * @return the encoded block.
+     * @throws IOException If the block cannot be encoded.
+     */
+    static EncodedBlock encodeBlock(byte[] block, int length, int maxCodeLength, boolean interleaved,
+                                    CodecStats stats) throws IOException {
+        stats.addBlock();
+        long start = stats.time();
+        Histogram histogram = new Histogram();
+        histogram.add(block, 0, length);
+        stats.stop(CodecStats.Phase.HISTOGRAM, start);
+        start = stats.time();
+        CanonicalCode code = new Huffman(histogram).getCanonicalCode(maxCodeLength);
+        long encoded = (code.getEncodedBits(histogram.getCounts()) + 7) / 8;
+        stats.stop(CodecStats.Phase.TREE, start);
+        if (!isWorthEncoding(interleaved ? encoded + INTERLEAVED_OVERHEAD : encoded, length)) {
+            return new EncodedBlock(BLOCK_STORED, length, block, length);
+        }
+        stats.addCoded(histogram.getCounts(), code);
+        start = stats.time();
+        try {
+            return encode(block, length, code, interleaved);
+        } finally {
+            stats.stop(CodecStats.Phase.ENCODE, start);
+        }
+    }
+
+
+    /**
+     * Encodes one block with the given code.
+     *
+     * @param block the data.
+     * @param length the number of bytes of data in the array.
+     * @param code the block's code.
+     * @param interleaved true to encode into interleaved sub-streams.
+     * @return the encoded block.
+     * @throws IOException If the block cannot be encoded.
+     */
+    private static EncodedBlock encode(byte[] block, int length, CanonicalCode code, boolean interleaved)
+            throws IOException {
+        if (!interleaved) {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(length / 2 + 64);
+            BitWriter bitStream = new BitWriter(payload);
+            code.write(bitStream);
+            code.encode(block, 0, length, bitStream);
+            bitStream.flush();
+            return new EncodedBlock(BLOCK_HUFFMAN, length, payload.toByteArray(), payload.size());
+        }
+
+        ByteArrayOutputStream[] streams = new ByteArrayOutputStream[INTERLEAVED_STREAMS];
+        BitWriter[] bitStreams = new BitWriter[INTERLEAVED_STREAMS];
+        for (int i = 0; i < INTERLEAVED_STREAMS; i++) {
+            streams[i] = new ByteArrayOutputStream(length / (2 * INTERLEAVED_STREAMS) + 64);
+            bitStreams[i] = new BitWriter(streams[i]);
+        }
+        code.write(bitStreams[0]);
+        code.getCodeTable().encode(block, 0, length, bitStreams);
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(length / 2 + 64);
+        for (int i = 0; i < INTERLEAVED_STREAMS; i++) {
+            bitStreams[i].flush();
+            if (i < INTERLEAVED_STREAMS - 1) {
+                Huffman.writeLength(payload, streams[i].size());
+            }
+        }
+        for (ByteArrayOutputStream stream : streams) {
+            stream.writeTo(payload);
+        }
+        return new EncodedBlock(BLOCK_HUFFMAN4, length, payload.toByteArray(), payload.size());
+    }
+
+
+    /**
+     * Writes an encoded block with its type and sizes, and adds its index entry.
+     *
+     * @param block the encoded block.
+     * @param out the OutputStream.
+     * @param index where to add the block's index entry.
+     * @param source the file the input is read from, or null.
+     * @param target the file out writes to, or null.
+     * @param stats the job's stats.
+     * @throws IOException If there are any read/write errors.
+     */
+    private static void writeBlock(EncodedBlock block, CountingOutputStream out, DataOutputStream index,
+                                   FileChannel source, FileChannel target, CodecStats stats) throws IOException {
+        long time = stats.time();
+        long start = out.count;
+        if (block.type == BLOCK_STORED && source != null && target != null) {
+            out.write(block.type);
+            Huffman.writeLength(out, block.length);
+            Huffman.writeLength(out, block.size);
+            // copy the block from file to file
+            out.flush();
+            long position = block.offset;
+            long end = position + block.size;
+            while (position < end) {
+                long n = source.transferTo(position, end - position, target);
+                if (n <= 0) {
+                    throw new IOException("Input changed while it was being compressed");
+                }
+                position += n;
+            }
+            out.count += block.size;
+        } else {
+            writeRecord(block, out);
+        }
+        index.writeLong(start);
+        index.writeInt((int) (out.count - start));
+        index.writeInt(block.length);
+        stats.stop(CodecStats.Phase.WRITE, time);
+    }
+
+
+    /**
+     * Writes an encoded block with its type and sizes.
+     *
+     * @param block the encoded block.
+     * @param out the OutputStream.
+     * @throws IOException If there are any write errors.
+     */
+    static void writeRecord(EncodedBlock block, OutputStream out) throws IOException {
+        out.write(block.type);
+        Huffman.writeLength(out, block.length);
+        Huffman.writeLength(out, block.size);
+        out.write(block.payload, 0, block.size);
+    }
+
+
+    /**
+     * A block ready to be written.
+     */
+    static class EncodedBlock {
+        final int type;
+        final int length;
+        final byte[] payload;
+        final int size; // number of bytes of payload
+        long offset; // where the block starts in the input
+
+        EncodedBlock(int type, int length, byte[] payload, int size) {
+            this.type = type;
+            this.length = length;
+            this.payload = payload;
+            this.size = size;
+        }
+    }
+
+
+    /**
+     * Passes bytes through to another stream, counting them, or only counts them if there
+     * is no stream to pass them to.
+     */
+    static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (out != null) {
+                out.write(b);
+            }
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (out != null) {
+                out.write(b, off, len);
+            }
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out != null) {
+                super.close();
+            }
+        }
+    }
+}
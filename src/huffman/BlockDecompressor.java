@@ -0,0 +1,495 @@
+package huffman;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Decompresses .huff files in the block container format written by
+ * {@link BlockCompressor}.
+ *
+ * <p>Any block container can be decoded in order from a stream. A file that ends with a
+ * block index can also be decoded in parallel: every block's position in the input and in
+ * the output is known up front, so blocks are read, decoded and written straight to their
+ * final place in a preallocated output file, several at a time, on a ForkJoinPool.</p>
+ *
+ * @author Jacob Gordon
+ */
+public class BlockDecompressor {
+
+    /**
+     * Number of threads used to decode blocks.
+     */
+    private final int parallelism;
+
+
+    /**
+     * Creates a block decompressor using every available core.
+     */
+    public BlockDecompressor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+
+    /**
+     * Creates a block decompressor.
+     *
+     * @param parallelism the number of threads used to decode blocks.
+     */
+    public BlockDecompressor(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+    }
+
+
+    /**
+     * Decompresses the given block container file into the given output file, decoding
+     * blocks in parallel if the file has a block index.
+     *
+     * @param in the .huff file, in the block container format.
+     * @param out the file to write; replaced if it exists.
+     * @return the job's stats, if metrics are enabled.
+     * @throws IOException If cannot read/write files, or the data is invalid.
+     */
+    public CodecStats decompress(Path in, Path out) throws IOException {
+        CodecStats stats = CodecStats.begin(false);
+        decompress(in, out, stats);
+        return stats.end();
+    }
+
+
+    /**
+     * Decompresses the given block container file into the given output file, as part of
+     * a job.
+     *
+     * @param in the .huff file, in the block container format.
+     * @param out the file to write; replaced if it exists.
+     * @param stats the job's stats.
+     * @throws IOException If cannot read/write files, or the data is invalid.
+     */
+    void decompress(Path in, Path out, CodecStats stats) throws IOException {
+        try (FileChannel source = FileChannel.open(in, StandardOpenOption.READ)) {
+            stats.addBytesIn(source.size());
+            Header header = readHeader(source);
+            if ((header.flags & BlockCompressor.FLAG_INDEX) == 0) {
+                // no index: decode the blocks in order
+                try (InputStream filein = new BufferedInputStream(Channels.newInputStream(source.position(3)));
+                     OutputStream fileout = new BufferedOutputStream(Files.newOutputStream(out))) {
+                    decompress(filein, fileout, stats);
+                }
+                stats.addBytesOut(Files.size(out));
+                return;
+            }
+            long[] offsets = readIndex(source, header);
+            try (FileChannel target = FileChannel.open(out, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                decodeBlocks(source, target, header, offsets, stats);
+            }
+            stats.addBytesOut(offsets[offsets.length - 1]);
+        }
+    }
+
+
+    /**
+     * Decodes every block listed in the index, in parallel, each straight into its
+     * place in the output.
+     *
+     * @param source the .huff file.
+     * @param target the output file, empty.
+     * @param header the file's header.
+     * @param entries the block index: offset, record size and output offset of each block,
+     *     three longs per block, followed by the total output size.
+     * @param stats the job's stats.
+     * @throws IOException If cannot read/write files, or the data is invalid.
+     */
+    private void decodeBlocks(final FileChannel source, final FileChannel target, final Header header,
+                              long[] entries, final CodecStats stats) throws IOException {
+        int blocks = (entries.length - 1) / 3;
+        long total = entries[entries.length - 1];
+        if (total > 0) {
+            // preallocate the output
+            target.write(ByteBuffer.wrap(new byte[1]), total - 1);
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            Deque<ForkJoinTask<Void>> pending = new ArrayDeque<ForkJoinTask<Void>>();
+            for (int i = 0; i < blocks; i++) {
+                final long recordOffset = entries[3 * i];
+                final int recordSize = (int) entries[3 * i + 1];
+                final long outputOffset = entries[3 * i + 2];
+                if (pending.size() == 2 * parallelism) {
+                    BlockCompressor.await(pending.removeFirst());
+                }
+                pending.addLast(pool.submit(() -> {
+                    stats.addBlock();
+                    long start = stats.time();
+                    ByteBuffer record = ByteBuffer.allocate(recordSize);
+                    readFully(source, record, recordOffset);
+                    stats.stop(CodecStats.Phase.READ, start);
+                    start = stats.time();
+                    byte[] block = new byte[header.blockSize];
+                    int length = decodeRecord(record.array(), block);
+                    stats.stop(CodecStats.Phase.DECODE, start);
+                    start = stats.time();
+                    ByteBuffer decoded = ByteBuffer.wrap(block, 0, length);
+                    long position = outputOffset;
+                    while (decoded.hasRemaining()) {
+                        position += target.write(decoded, position);
+                    }
+                    stats.stop(CodecStats.Phase.WRITE, start);
+                    return null;
+                }));
+            }
+            while (!pending.isEmpty()) {
+                BlockCompressor.await(pending.removeFirst());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Decompresses a block container, writing to the given output stream.
+     *
+     * @param in the InputStream, just past the magic and version bytes.
+     * @param out the OutputStream.
+     * @return the job's stats, if metrics are enabled.
+     * @throws IOException If there are any read/write errors, or the data is invalid.
+     */
+    public static CodecStats decompress(InputStream in, OutputStream out) throws IOException {
+        CodecStats stats = CodecStats.begin(false);
+        if (!stats.isEnabled()) {
+            decompress(in, out, stats);
+            return stats.end();
+        }
+        CountingInputStream counted = new CountingInputStream(in);
+        BlockCompressor.CountingOutputStream countedOut = new BlockCompressor.CountingOutputStream(out);
+        decompress(counted, countedOut, stats);
+        stats.addBytesIn(counted.count);
+        stats.addBytesOut(countedOut.count);
+        return stats.end();
+    }
+
+
+    /**
+     * Decompresses a block container, writing to the given output stream, as part of a
+     * job. Bytes in and out are left for the caller to count.
+     *
+     * @param in the InputStream, just past the magic and version bytes.
+     * @param out the OutputStream.
+     * @param stats the job's stats.
+     * @throws IOException If there are any read/write errors, or the data is invalid.
+     */
+    static void decompress(InputStream in, OutputStream out, CodecStats stats) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        Header header = readHeader(data);
+        byte[] block = new byte[header.blockSize];
+        while (true) {
+            long start = stats.time();
+            int type = Huffman.readByte(data);
+            if (type == BlockCompressor.BLOCK_END) {
+                stats.stop(CodecStats.Phase.READ, start);
+                break;
+            }
+            long length = Huffman.readLength(data);
+            long compressed = Huffman.readLength(data);
+            if (length > header.blockSize || compressed > Integer.MAX_VALUE) {
+                throw new IOException("Invalid block sizes " + length + ", " + compressed);
+            }
+            byte[] payload = new byte[(int) compressed];
+            data.readFully(payload);
+            stats.stop(CodecStats.Phase.READ, start);
+            stats.addBlock();
+            start = stats.time();
+            decodeBlock(type, payload, 0, payload.length, block, (int) length);
+            stats.stop(CodecStats.Phase.DECODE, start);
+            start = stats.time();
+            out.write(block, 0, (int) length);
+            stats.stop(CodecStats.Phase.WRITE, start);
+        }
+    }
+
+
+    /**
+     * Reads the container header that follows the magic and version bytes.
+     *
+     * @param in the InputStream, just past the magic and version bytes.
+     * @return the header.
+     * @throws IOException If there are any read errors, or the header is invalid.
+     */
+    static Header readHeader(InputStream in) throws IOException {
+        int flags = Huffman.readByte(in) & 0xff;
+        long blockSize = Huffman.readLength(in);
+        if (blockSize < 1 || blockSize > BlockCompressor.MAX_BLOCK_SIZE) {
+            throw new IOException("Invalid block size " + blockSize);
+        }
+        return new Header(flags, (int) blockSize);
+    }
+
+
+    /**
+     * Reads the header at the start of a block container file.
+     *
+     * @param source the file.
+     * @return the header.
+     * @throws IOException If there are any read errors, or the file is not a block container.
+     */
+    private static Header readHeader(FileChannel source) throws IOException {
+        ByteBuffer start = ByteBuffer.allocate(16);
+        while (start.hasRemaining() && source.read(start, start.position()) != -1) {
+            // keep reading; a short header is caught below
+        }
+        InputStream in = new ByteArrayInputStream(start.array(), 0, start.position());
+        if (Huffman.readByte(in) != Huffman.MAGIC[0] || Huffman.readByte(in) != Huffman.MAGIC[1]
+                || Huffman.readByte(in) != Huffman.VERSION_BLOCKS) {
+            throw new IOException("Not a block container .huff file");
+        }
+        return readHeader(in);
+    }
+
+
+    /**
+     * Reads the block index at the end of a block container file.
+     *
+     * @param source the file.
+     * @param header the file's header.
+     * @return three longs per block (its offset in the file, the size of its record, and
+     *     its offset in the output), then the total output size.
+     * @throws IOException If there are any read errors, or the index is invalid.
+     */
+    private static long[] readIndex(FileChannel source, Header header) throws IOException {
+        long size = source.size();
+        ByteBuffer trailer = ByteBuffer.allocate(8);
+        readFully(source, trailer, size - 8);
+        long indexOffset = trailer.getLong(0);
+        ByteBuffer count = ByteBuffer.allocate(4);
+        readFully(source, count, indexOffset);
+        int blocks = count.getInt(0);
+        if (indexOffset < 0 || blocks < 0
+                || indexOffset + 4 + (long) blocks * BlockCompressor.INDEX_ENTRY_SIZE != size - 8) {
+            throw new IOException("Invalid block index");
+        }
+        ByteBuffer index = ByteBuffer.allocate(blocks * BlockCompressor.INDEX_ENTRY_SIZE);
+        readFully(source, index, indexOffset + 4);
+        index.flip();
+        long[] entries = new long[3 * blocks + 1];
+        long output = 0;
+        for (int i = 0; i < blocks; i++) {
+            entries[3 * i] = index.getLong();
+            entries[3 * i + 1] = index.getInt();
+            entries[3 * i + 2] = output;
+            int length = index.getInt();
+            if (length < 0 || length > header.blockSize) {
+                throw new IOException("Invalid block index");
+            }
+            output += length;
+        }
+        entries[3 * blocks] = output;
+        return entries;
+    }
+
+
+    /**
+     * Reads from the given position of a file until the buffer is full.
+     *
+     * @param source the file.
+     * @param dst the buffer to fill.
+     * @param position where in the file to start.
+     * @throws IOException If there are any read errors, or the file ends first.
+     */
+    private static void readFully(FileChannel source, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = source.read(dst, position);
+            if (n == -1) {
+                throw new EOFException("Unexpected end of .huff data");
+            }
+            position += n;
+        }
+    }
+
+
+    /**
+     * Decodes one block record: the type byte, sizes and payload.
+     *
+     * @param record the record.
+     * @param dst where to put the decoded bytes.
+     * @return the number of bytes decoded.
+     * @throws IOException If the block is invalid.
+     */
+    private static int decodeRecord(byte[] record, byte[] dst) throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(record);
+        int type = Huffman.readByte(in);
+        long length = Huffman.readLength(in);
+        long compressed = Huffman.readLength(in);
+        int offset = record.length - in.available();
+        if (length > dst.length || compressed != in.available()) {
+            throw new IOException("Invalid block sizes " + length + ", " + compressed);
+        }
+        decodeBlock(type, record, offset, (int) compressed, dst, (int) length);
+        return (int) length;
+    }
+
+
+    /**
+     * Decodes the payload of one block.
+     *
+     * @param type the block's type.
+     * @param payload the array holding the compressed bytes.
+     * @param off where the compressed bytes start.
+     * @param len the number of compressed bytes.
+     * @param dst where to put the decoded bytes.
+     * @param length the number of bytes the block decodes to.
+     * @throws IOException If the block is invalid.
+     */
+    static void decodeBlock(int type, byte[] payload, int off, int len, byte[] dst, int length)
+            throws IOException {
+        if (type == BlockCompressor.BLOCK_HUFFMAN) {
+            BitReader bits = new BitReader(ByteBuffer.wrap(payload, off, len));
+            CanonicalCode code = CanonicalCode.read(bits);
+            code.newDecoder().decode(bits, dst, 0, length);
+        } else if (type == BlockCompressor.BLOCK_STORED) {
+            if (len != length) {
+                throw new IOException("Invalid stored block size " + len);
+            }
+            System.arraycopy(payload, off, dst, 0, length);
+        } else if (type == BlockCompressor.BLOCK_HUFFMAN4) {
+            BitReader[] bits = subStreams(ByteBuffer.wrap(payload, off, len));
+            CanonicalCode code = CanonicalCode.read(bits[0]);
+            code.newDecoder().decode(bits, dst, 0, length);
+        } else {
+            throw new IOException("Unknown block type " + type);
+        }
+    }
+
+
+    /**
+     * Decodes the payload of one block from one buffer into another, reading the payload
+     * in place.
+     *
+     * @param type the block's type.
+     * @param payload the compressed bytes, from its position to its limit.
+     * @param dst where to put the decoded bytes, from its position to its limit, which
+     *     must be the number of bytes the block decodes to.
+     * @throws IOException If the block is invalid.
+     */
+    static void decodeBlock(int type, ByteBuffer payload, ByteBuffer dst) throws IOException {
+        if (type == BlockCompressor.BLOCK_HUFFMAN) {
+            BitReader bits = new BitReader(payload);
+            CanonicalCode code = CanonicalCode.read(bits);
+            code.newDecoder().decode(bits, dst);
+        } else if (type == BlockCompressor.BLOCK_STORED) {
+            if (payload.remaining() != dst.remaining()) {
+                throw new IOException("Invalid stored block size " + payload.remaining());
+            }
+            dst.put(payload.duplicate());
+        } else if (type == BlockCompressor.BLOCK_HUFFMAN4) {
+            BitReader[] bits = subStreams(payload);
+            CanonicalCode code = CanonicalCode.read(bits[0]);
+            code.newDecoder().decode(bits, dst);
+        } else {
+            throw new IOException("Unknown block type " + type);
+        }
+    }
+
+
+    /**
+     * Returns readers for the sub-streams of a {@link BlockCompressor#BLOCK_HUFFMAN4} payload.
+     *
+     * @param payload the payload, from its position to its limit.
+     * @return a reader for each sub-stream.
+     * @throws IOException If the sub-stream sizes are invalid.
+     */
+    private static BitReader[] subStreams(ByteBuffer payload) throws IOException {
+        // the sizes of all but the last sub-stream, then the sub-streams
+        ByteBuffer sizes = payload.duplicate();
+        long[] size = new long[BlockCompressor.INTERLEAVED_STREAMS];
+        long rest = 0;
+        for (int i = 0; i < size.length - 1; i++) {
+            size[i] = Huffman.getLength(sizes);
+            rest += size[i];
+        }
+        size[size.length - 1] = sizes.remaining() - rest;
+        int start = sizes.position();
+        BitReader[] bits = new BitReader[size.length];
+        for (int i = 0; i < size.length; i++) {
+            if (size[i] < 0 || start + size[i] > payload.limit()) {
+                throw new IOException("Invalid sub-stream size " + size[i]);
+            }
+            ByteBuffer stream = payload.duplicate();
+            stream.position(start).limit(start + (int) size[i]);
+            bits[i] = new BitReader(stream);
+            start += size[i];
+        }
+        return bits;
+    }
+
+
+    /**
+     * Counts the bytes read through it.
+     */
+    static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+
+    /**
+     * The fields of a block container header.
+     */
+    static class Header {
+        final int flags;
+        final int blockSize;
+
+        Header(int flags, int blockSize) {
+            this.flags = flags;
+            this.blockSize = blockSize;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package huffman;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A canonical Huffman code over byte values.
+ *
+ * <p>A canonical code is fully determined by the length of each byte value's code: codes
+ * are handed out in order of length, and among codes of the same length in order of byte
+ * value, each one being the previous code plus one (shifted left whenever the length grows).
+ * That means only the lengths have to be stored with the encoded data, and the decoder can
+ * build its lookup tables straight from them without rebuilding a tree.</p>
+ *
+ * <p>The lengths are written as a small table:
+ * <ul>
+ * <li>3 bits: the width w, in bits, of each length field (1 to 6)
+ * <li>for each byte value from 0 to 255, a w-bit code length. A length of 0 means the
+ * value does not occur, and is followed by 8 bits giving how many more values after it
+ * also do not occur.
+ * </ul>
+ * </p>
+ *
+ * @author Jacob Gordon
+ */
+public class CanonicalCode {
+
+    /**
+     * Longest code length a canonical code may use.
+     */
+    public static final int MAX_CODE_LENGTH = 32;
+
+    /**
+     * Code for each byte value, right-aligned, indexed by the byte's unsigned value.
+     */
+    private final int[] codes = new int[256];
+
+    /**
+     * Length of each byte value's code, or 0 if the value has no code.
+     */
+    private final byte[] lengths;
+
+    /**
+     * Length of the longest code.
+     */
+    private int maxLength;
+
+    /**
+     * Table used to encode with this code; built on first use.
+     */
+    private CodeTable codeTable;
+
+
+    /**
+     * Assigns canonical codes for the given code lengths.
+     *
+     * @param lengths the code length of each byte value, indexed by its unsigned value,
+     *     with 0 for values that have no code.
+     * @throws IllegalArgumentException if the lengths do not describe a prefix-free code.
+     */
+    public CanonicalCode(byte[] lengths) {
+        if (lengths.length != 256) {
+            throw new IllegalArgumentException("Expected 256 code lengths, got " + lengths.length);
+        }
+        this.lengths = lengths.clone();
+        int[] lengthCounts = new int[MAX_CODE_LENGTH + 1];
+        for (int s = 0; s < 256; s++) {
+            int length = this.lengths[s];
+            if (length < 0 || length > MAX_CODE_LENGTH) {
+                throw new IllegalArgumentException("Code length " + length + " out of range for byte " + s);
+            }
+            if (length != 0) {
+                lengthCounts[length]++;
+                maxLength = Math.max(maxLength, length);
+            }
+        }
+        if (maxLength == 0) {
+            throw new IllegalArgumentException("No code lengths given");
+        }
+
+        // first code of each length, checking the lengths don't oversubscribe the code space
+        long[] nextCode = new long[MAX_CODE_LENGTH + 1];
+        long code = 0;
+        for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+            code = (code + lengthCounts[length - 1]) << 1;
+            nextCode[length] = code;
+            if (code + lengthCounts[length] > (1L << length)) {
+                throw new IllegalArgumentException("Code lengths are not prefix-free");
+            }
+        }
+        for (int s = 0; s < 256; s++) {
+            int length = this.lengths[s];
+            if (length != 0) {
+                codes[s] = (int) nextCode[length]++;
+            }
+        }
+    }
+
+
+    /**
+     * Returns a copy of the code lengths, indexed by unsigned byte value.
+     *
+     * @return the code lengths.
+     */
+    public byte[] getLengths() {
+        return lengths.clone();
+    }
+
+
+    /**
+     * Returns a copy of the codes, indexed by unsigned byte value.
+     *
+     * @return the codes, right-aligned.
+     */
+    public int[] getCodes() {
+        return codes.clone();
+    }
+
+
+    /**
+     * Returns the length of the longest code.
+     *
+     * @return the longest code length.
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+
+    /**
+     * Builds a table decoder for this code.
+     *
+     * @return a new decoder.
+     */
+    public TableDecoder newDecoder() {
+        return new TableDecoder(codes, lengths);
+    }
+
+
+    /**
+     * Returns the table used to encode with this code.
+     *
+     * @return the code table.
+     */
+    public CodeTable getCodeTable() {
+        if (codeTable == null) {
+            codeTable = new CodeTable(codes, lengths);
+        }
+        return codeTable;
+    }
+
+
+    /**
+     * Encodes the given bytes with this code.
+     *
+     * @param bytes the data to encode; every value must have a code.
+     * @param off index of the first byte to encode.
+     * @param len number of bytes to encode.
+     * @param out the BitWriter.
+     * @throws IOException if there is a problem writing to stream.
+     */
+    public void encode(byte[] bytes, int off, int len, BitWriter out) throws IOException {
+        getCodeTable().encode(bytes, off, len, out);
+    }
+
+
+    /**
+     * Encodes the remaining bytes of the given buffer with this code.
+     *
+     * @param src the data to encode; every value must have a code.
+     * @param out the BitWriter.
+     * @throws IOException if there is a problem writing to stream.
+     */
+    public void encode(ByteBuffer src, BitWriter out) throws IOException {
+        getCodeTable().encode(src, out);
+    }
+
+
+    /**
+     * Returns the number of bits {@link #write(BitWriter)} writes for this code.
+     *
+     * @return the size of the code length table in bits.
+     */
+    int getTableBits() {
+        int width = 32 - Integer.numberOfLeadingZeros(maxLength);
+        int size = 3;
+        int s = 0;
+        while (s < 256) {
+            size += width;
+            if (lengths[s] == 0) {
+                while (s + 1 < 256 && lengths[s + 1] == 0) {
+                    s++;
+                }
+                size += 8;
+            }
+            s++;
+        }
+        return size;
+    }
+
+
+    /**
+     * Returns the number of bits this code takes to write out data with the given byte
+     * counts, its code length table included.
+     *
+     * @param counts the number of times each byte value occurs.
+     * @return the size of the table and the encoded data in bits, before padding.
+     */
+    long getEncodedBits(long[] counts) {
+        long bits = getTableBits();
+        for (int s = 0; s < 256; s++) {
+            bits += counts[s] * lengths[s];
+        }
+        return bits;
+    }
+
+
+    /**
+     * Writes the code length table to the given bit writer.
+     *
+     * @param out the BitWriter.
+     * @throws IOException if there is a problem writing to stream.
+     */
+    public void write(BitWriter out) throws IOException {
+        int width = 32 - Integer.numberOfLeadingZeros(maxLength);
+        out.writeBits(width, 3);
+        int s = 0;
+        while (s < 256) {
+            out.writeBits(lengths[s], width);
+            if (lengths[s] == 0) {
+                int run = 0;
+                while (s + run + 1 < 256 && lengths[s + run + 1] == 0) {
+                    run++;
+                }
+                out.writeBits(run, 8);
+                s += run;
+            }
+            s++;
+        }
+    }
+
+
+    /**
+     * Reads a code length table as written by {@link #write(BitWriter)}.
+     *
+     * @param in the BitReader, at the start of the table.
+     * @return the code described by the table.
+     * @throws IOException if the table is invalid or cannot be read.
+     */
+    public static CanonicalCode read(BitReader in) throws IOException {
+        int width = in.peekBits(3);
+        in.skipBits(3);
+        if (width == 0 || width > 6) {
+            throw new IOException("Invalid code length width " + width);
+        }
+        byte[] lengths = new byte[256];
+        int s = 0;
+        while (s < 256) {
+            int length = in.peekBits(width);
+            in.skipBits(width);
+            lengths[s] = (byte) length;
+            if (length == 0) {
+                int run = in.peekBits(8);
+                in.skipBits(8);
+                s += run;
+            }
+            s++;
+        }
+        if (s > 256) {
+            throw new IOException("Code length table overruns the byte range");
+        }
+        try {
+            return new CanonicalCode(lengths);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid code length table: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package huffman;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Command line entry point, for servers and scripts. Needs nothing but the huffman package,
+ * so it runs without JavaFX and on headless hosts:
+ * <pre>
+ * java -cp Huff4Java.jar huffman.Cli &lt;command&gt; [options] [files...]
+ * </pre>
+ *
+ * <p>Commands:
+ * <ul>
+ * <li>{@code compress}: compresses each file into the same name plus {@link Huffman#HUFF_EXT}
+ * <li>{@code decompress}: decompresses each .huff file into the name without the extension
+ * <li>{@code test}: decompresses each .huff file without writing anything, to check it can be
+ * read in full
+ * <li>{@code stats}: prints how small each file would compress, from {@link SizeEstimator},
+ * without writing anything
+ * </ul>
+ * With no files, or a file of {@code -}, compress and decompress read standard input and
+ * write standard output; compressing a stream writes a block container a block at a time,
+ * as {@link HuffmanOutputStream} does. With {@code -j}, several files are processed at once;
+ * a line with the sizes, time taken and throughput is reported for each.</p>
+ *
+ * <p>Options:
+ * <ul>
+ * <li>{@code -j n}: process up to n files at once; 1 by default, since block containers
+ * and large legacy files are already compressed and decompressed on every core
+ * <li>{@code -f}: replace output files that already exist
+ * <li>{@code -d}: delete each input file once it has been compressed or decompressed
+ * <li>{@code -s fraction}: for stats, read only this fraction of each file
+ * <li>{@code -q}: report nothing but errors
+ * </ul>
+ * The exit status is 0 if every file succeeded, 1 if any failed, and 2 for bad usage.</p>
+ *
+ * @author Jacob Gordon
+ */
+public class Cli {
+
+    private static final String USAGE = "usage: java -cp Huff4Java.jar huffman.Cli "
+            + "compress|decompress|test|stats [-j threads] [-f] [-d] [-s fraction] [-q] [files...]";
+
+    private final String command;
+    private final List<String> files = new ArrayList<String>();
+    private int threads = 1;
+    private boolean force;
+    private boolean delete;
+    private double fraction = 1;
+    private boolean quiet;
+
+    /**
+     * Where reports go: standard error when standard output carries data.
+     */
+    private PrintStream report = System.out;
+
+
+    private Cli(String command) {
+        this.command = command;
+    }
+
+
+    /**
+     * Runs a command.
+     *
+     * @param args the command, options and files.
+     */
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+
+    /**
+     * Runs a command.
+     *
+     * @param args the command, options and files.
+     * @return the exit status.
+     */
+    static int run(String[] args) {
+        if (args.length == 0) {
+            System.err.println(USAGE);
+            return 2;
+        }
+        Cli cli = new Cli(args[0]);
+        try {
+            for (int i = 1; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("-j")) {
+                    cli.threads = Integer.parseInt(value(args, ++i, arg));
+                } else if (arg.equals("-s")) {
+                    cli.fraction = Double.parseDouble(value(args, ++i, arg));
+                } else if (arg.equals("-f")) {
+                    cli.force = true;
+                } else if (arg.equals("-d")) {
+                    cli.delete = true;
+                } else if (arg.equals("-q")) {
+                    cli.quiet = true;
+                } else if (arg.equals("--")) {
+                    for (i++; i < args.length; i++) {
+                        cli.files.add(args[i]);
+                    }
+                } else if (arg.startsWith("-") && !arg.equals("-")) {
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                } else {
+                    cli.files.add(arg);
+                }
+            }
+            if (cli.threads < 1 || !(cli.fraction > 0 && cli.fraction <= 1)) {
+                throw new IllegalArgumentException("Bad -j or -s value");
+            }
+            if (!cli.command.equals("compress") && !cli.command.equals("decompress")
+                    && !cli.command.equals("test") && !cli.command.equals("stats")) {
+                throw new IllegalArgumentException("Unknown command " + cli.command);
+            }
+        } catch (RuntimeException e) {
+            // a bad option, a missing value or a bad number
+            System.err.println(e.getMessage() == null ? e.toString() : e.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+        return cli.run();
+    }
+
+
+    /**
+     * Returns the value that follows an option.
+     *
+     * @param args the command, options and files.
+     * @param i where the value should be.
+     * @param option the option, for the error message.
+     * @return the value.
+     */
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[i];
+    }
+
+
+    /**
+     * Processes every file, several at once.
+     *
+     * @return the exit status.
+     */
+    private int run() {
+        if (files.isEmpty()) {
+            files.add("-");
+        }
+        if (files.contains("-") && (command.equals("compress") || command.equals("decompress"))) {
+            report = System.err;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, files.size()));
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (final String file : files) {
+            results.add(pool.submit(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    return process(file);
+                }
+            }));
+        }
+        pool.shutdown();
+
+        int status = 0;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                String line = results.get(i).get();
+                if (!quiet) {
+                    report.println(line);
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                System.err.println(files.get(i) + ": "
+                        + (cause instanceof NoSuchFileException ? "No such file"
+                        : cause.getMessage() == null ? cause.toString() : cause.getMessage()));
+                status = 1;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 1;
+            }
+        }
+        return status;
+    }
+
+
+    /**
+     * Runs the command on one file.
+     *
+     * @param file the file's name, or "-" for standard input.
+     * @return the line to report.
+     * @throws IOException If the file cannot be processed.
+     */
+    private String process(String file) throws IOException {
+        long start = System.nanoTime();
+        if (command.equals("stats")) {
+            if (file.equals("-")) {
+                throw new IOException("stats needs a file");
+            }
+            return file + ": " + SizeEstimator.estimate(Paths.get(file), fraction);
+        }
+
+        long in;
+        long out;
+        if (file.equals("-")) {
+            BlockDecompressor.CountingInputStream counted =
+                    new BlockDecompressor.CountingInputStream(new BufferedInputStream(System.in));
+            BlockCompressor.CountingOutputStream sink = new BlockCompressor.CountingOutputStream(
+                    command.equals("test") ? null : System.out);
+            OutputStream stdout = new BufferedOutputStream(sink);
+            if (command.equals("compress")) {
+                // finished rather than closed, so that standard output stays open
+                HuffmanOutputStream huff = new HuffmanOutputStream(stdout);
+                copy(counted, huff);
+                huff.finish();
+                stdout.flush();
+            } else {
+                Huffman.decompress(counted, stdout);
+                stdout.flush();
+            }
+            in = counted.count;
+            out = sink.count;
+        } else {
+            Path source = Paths.get(file);
+            in = Files.size(source);
+            if (command.equals("test")) {
+                BlockCompressor.CountingOutputStream sink = new BlockCompressor.CountingOutputStream(null);
+                try (InputStream filein = new BufferedInputStream(Files.newInputStream(source))) {
+                    Huffman.decompress(filein, sink);
+                }
+                out = sink.count;
+            } else {
+                Path target = target(file);
+                if (Files.exists(target) && !force) {
+                    throw new IOException(target + " already exists; use -f to replace it");
+                }
+                if (command.equals("compress")) {
+                    Huffman.compress(source, target);
+                } else {
+                    Huffman.decompress(source, target);
+                }
+                out = Files.size(target);
+                if (delete) {
+                    Files.delete(source);
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long raw = command.equals("compress") ? in : out;
+        return String.format(Locale.ROOT, "%s: %d -> %d bytes (%.1f%%) in %.3f s, %.1f MB/s", file, in, out,
+                in == 0 ? 100.0 : out * 100.0 / in, seconds, raw / 1e6 / Math.max(seconds, 1e-9));
+    }
+
+
+    /**
+     * Returns the output file for a compress or decompress command.
+     *
+     * @param file the input file's name.
+     * @return the output file.
+     * @throws IOException If a file to decompress does not end in .huff.
+     */
+    private Path target(String file) throws IOException {
+        if (command.equals("compress")) {
+            return Paths.get(file + Huffman.HUFF_EXT);
+        } else if (!file.endsWith(Huffman.HUFF_EXT)) {
+            throw new IOException(file + " does not end in " + Huffman.HUFF_EXT);
+        }
+        return Paths.get(file.substring(0, file.length() - Huffman.HUFF_EXT.length()));
+    }
+
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[Huffman.FILE_CHUNK_SIZE];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+    }
+}
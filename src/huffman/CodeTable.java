@@ -0,0 +1,207 @@
+package huffman;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes bytes through flat lookup tables: the code and code length of each byte
+ * value sit in primitive arrays indexed by the value, and each symbol's whole code is
+ * handed to {@link BitWriter#writeBits(int, int)} in one call.
+ *
+ * <p>For large inputs, a second pair of tables can be built with
+ * {@link #enablePairs()}. It is indexed by two consecutive bytes at once and holds their
+ * two codes joined together, which halves the lookups and bit writes when codes are short,
+ * as they are for highly skewed data.</p>
+ *
+ * @author Jacob Gordon
+ */
+public class CodeTable {
+
+    /**
+     * Number of bytes worth encoding before it pays to build the pair tables.
+     */
+    public static final int PAIR_MIN_BYTES = 1 << 20;
+
+    /**
+     * Code for each byte value, right-aligned, indexed by the byte's unsigned value.
+     */
+    private final int[] codes;
+
+    /**
+     * Length of each byte value's code, or 0 if the value has no code.
+     */
+    private final byte[] lengths;
+
+    /**
+     * Codes for each pair of bytes, indexed by the first byte's unsigned value times 256
+     * plus the second's. Null until enablePairs is called.
+     */
+    private int[] pairCodes;
+
+    /**
+     * Lengths of the pair codes, or 0 if the two codes together are longer than 32 bits.
+     */
+    private byte[] pairLengths;
+
+
+    /**
+     * Creates a code table for the given codes.
+     *
+     * @param codes the code of each byte value, right-aligned, indexed by the byte's
+     *     unsigned value.
+     * @param lengths the length in bits of each code, from 1 to 32, or 0 if the byte
+     *     value has no code.
+     */
+    public CodeTable(int[] codes, byte[] lengths) {
+        if (codes.length != 256 || lengths.length != 256) {
+            throw new IllegalArgumentException("Expected 256 codes and lengths");
+        }
+        this.codes = codes.clone();
+        this.lengths = lengths.clone();
+    }
+
+
+    /**
+     * Builds the two-byte tables, so that later calls to encode write two codes at a time.
+     */
+    public void enablePairs() {
+        if (pairCodes != null) {
+            return;
+        }
+        int[] pc = new int[256 * 256];
+        byte[] pl = new byte[256 * 256];
+        for (int first = 0; first < 256; first++) {
+            if (lengths[first] == 0) {
+                continue;
+            }
+            for (int second = 0; second < 256; second++) {
+                int length = lengths[first] + lengths[second];
+                if (lengths[second] != 0 && length <= 32) {
+                    int index = (first << 8) | second;
+                    pc[index] = (int) (((long) codes[first] << lengths[second]) | codes[second]);
+                    pl[index] = (byte) length;
+                }
+            }
+        }
+        this.pairCodes = pc;
+        this.pairLengths = pl;
+    }
+
+
+    /**
+     * Returns the length of the code for the given byte value.
+     *
+     * @param b the byte value.
+     * @return the code length in bits, or 0 if the value has no code.
+     */
+    public int getLength(byte b) {
+        return lengths[b & 0xff];
+    }
+
+
+    /**
+     * Encodes the given bytes, writing the resulting bits to the given writer.
+     *
+     * @param bytes the data to encode; every value must have a code.
+     * @param off index of the first byte to encode.
+     * @param len number of bytes to encode.
+     * @param out the BitWriter.
+     * @throws IOException If there is a problem writing to stream.
+     */
+    public void encode(byte[] bytes, int off, int len, BitWriter out) throws IOException {
+        int i = off;
+        int end = off + len;
+        if (pairCodes != null) {
+            for (; i + 1 < end; i += 2) {
+                int index = ((bytes[i] & 0xff) << 8) | (bytes[i + 1] & 0xff);
+                int length = pairLengths[index];
+                if (length != 0) {
+                    out.writeBits(pairCodes[index], length);
+                } else {
+                    // too long to write as one
+                    write(bytes[i], out);
+                    write(bytes[i + 1], out);
+                }
+            }
+        }
+        for (; i < end; i++) {
+            write(bytes[i], out);
+        }
+    }
+
+
+    /**
+     * Encodes the given bytes into several interleaved bit streams: byte off + i goes to
+     * writer i % out.length.
+     *
+     * @param bytes the data to encode; every value must have a code.
+     * @param off index of the first byte to encode.
+     * @param len number of bytes to encode.
+     * @param out the BitWriter for each stream.
+     * @throws IOException If there is a problem writing to stream.
+     */
+    public void encode(byte[] bytes, int off, int len, BitWriter[] out) throws IOException {
+        int end = off + len;
+        int i = off;
+        if (out.length == 4) {
+            for (; i + 3 < end; i += 4) {
+                write(bytes[i], out[0]);
+                write(bytes[i + 1], out[1]);
+                write(bytes[i + 2], out[2]);
+                write(bytes[i + 3], out[3]);
+            }
+        }
+        for (; i < end; i++) {
+            write(bytes[i], out[(i - off) % out.length]);
+        }
+    }
+
+
+    /**
+     * Encodes the remaining bytes of the given buffer, writing the resulting bits to the
+     * given writer. Reads the buffer in place, so a direct or mapped buffer is never
+     * copied to the heap.
+     *
+     * @param src the data to encode; every value must have a code. Its position is
+     *     moved to its limit.
+     * @param out the BitWriter.
+     * @throws IOException If there is a problem writing to stream.
+     */
+    public void encode(ByteBuffer src, BitWriter out) throws IOException {
+        int i = src.position();
+        int end = src.limit();
+        if (pairCodes != null) {
+            for (; i + 1 < end; i += 2) {
+                int index = ((src.get(i) & 0xff) << 8) | (src.get(i + 1) & 0xff);
+                int length = pairLengths[index];
+                if (length != 0) {
+                    out.writeBits(pairCodes[index], length);
+                } else {
+                    // too long to write as one
+                    write(src.get(i), out);
+                    write(src.get(i + 1), out);
+                }
+            }
+        }
+        for (; i < end; i++) {
+            write(src.get(i), out);
+        }
+        src.position(end);
+    }
+
+
+    /**
+     * Writes the code for a single byte.
+     *
+     * @param b the byte value.
+     * @param out the BitWriter.
+     * @throws IOException If there is a problem writing to stream.
+     */
+    private void write(byte b, BitWriter out) throws IOException {
+        int s = b & 0xff;
+        if (lengths[s] == 0) {
+            throw new IllegalArgumentException("No code for byte " + s);
+        }
+        out.writeBits(codes[s], lengths[s]);
+    }
+}
@@ -0,0 +1,273 @@
+package huffman;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Totals of the {@link CodecStats} of every job, published as a platform MBean named
+ * {@link #OBJECT_NAME}, so that JConsole or any JMX client can see how much the codec is
+ * doing and which phase its time goes to.
+ *
+ * <p>Metrics are off by default and cost next to nothing while off. They are turned on with
+ * the system property {@code -Dhuffman.metrics=true}, with
+ * {@code CodecMetrics.getInstance().setEnabled(true)}, or through the MBean's Enabled
+ * attribute once it is registered; the MBean is registered the first time metrics are
+ * turned on. If it cannot be, {@link #setEnabled(boolean)} throws, while the system
+ * property still turns metrics on and leaves the totals unpublished. Jobs that start while
+ * metrics are on are measured, and their stats added here when they end.</p>
+ *
+ * @author Jacob Gordon
+ */
+public final class CodecMetrics implements CodecMetricsMBean {
+
+    /**
+     * The name the MBean is registered under.
+     */
+    public static final String OBJECT_NAME = "huffman:type=CodecMetrics";
+
+    private static final CodecMetrics INSTANCE = new CodecMetrics();
+
+    private volatile boolean enabled;
+
+    private boolean registered;
+
+    private final LongAdder compressJobs = new LongAdder();
+    private final LongAdder decompressJobs = new LongAdder();
+    private final LongAdder compressBytesIn = new LongAdder();
+    private final LongAdder compressBytesOut = new LongAdder();
+    private final LongAdder decompressBytesIn = new LongAdder();
+    private final LongAdder decompressBytesOut = new LongAdder();
+    private final LongAdder blocks = new LongAdder();
+    private final LongAdder codedBytes = new LongAdder();
+    private final LongAdder codeBits = new LongAdder();
+    private final DoubleAdder entropyBits = new DoubleAdder();
+    private final LongAdder elapsed = new LongAdder();
+    private final LongAdder[] nanos = new LongAdder[CodecStats.Phase.values().length];
+
+
+    private CodecMetrics() {
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] = new LongAdder();
+        }
+        if (Boolean.getBoolean("huffman.metrics")) {
+            // keep the stats even if they cannot be published
+            try {
+                register();
+            } catch (IllegalStateException e) {
+                // the failure is seen again by anyone who calls setEnabled
+            }
+            enabled = true;
+        }
+    }
+
+
+    /**
+     * Returns the totals.
+     *
+     * @return the one instance, which is what is registered as the MBean.
+     */
+    public static CodecMetrics getInstance() {
+        return INSTANCE;
+    }
+
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+
+    /**
+     * Turns metrics on or off for jobs that start from now on, registering the MBean the
+     * first time they are turned on.
+     *
+     * @param enabled true to turn metrics on.
+     * @throws IllegalStateException If the MBean cannot be registered; metrics are left
+     *         as they were.
+     */
+    @Override
+    public void setEnabled(boolean enabled) {
+        if (enabled) {
+            register();
+        }
+        this.enabled = enabled;
+    }
+
+
+    private synchronized void register() {
+        if (registered) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException | SecurityException e) {
+            throw new IllegalStateException("Cannot register " + OBJECT_NAME, e);
+        }
+        registered = true;
+    }
+
+
+    /**
+     * Adds the stats of a job that has ended.
+     *
+     * @param stats the job's stats.
+     */
+    void add(CodecStats stats) {
+        if (stats.isCompressing()) {
+            compressJobs.increment();
+            compressBytesIn.add(stats.getBytesIn());
+            compressBytesOut.add(stats.getBytesOut());
+        } else {
+            decompressJobs.increment();
+            decompressBytesIn.add(stats.getBytesIn());
+            decompressBytesOut.add(stats.getBytesOut());
+        }
+        blocks.add(stats.getBlocks());
+        codedBytes.add(stats.getCodedBytes());
+        codeBits.add(stats.getCodeBits());
+        entropyBits.add(stats.getEntropyBits());
+        elapsed.add(stats.getElapsedNanos());
+        for (CodecStats.Phase phase : CodecStats.Phase.values()) {
+            nanos[phase.ordinal()].add(stats.getNanos(phase));
+        }
+    }
+
+
+    /**
+     * Returns the time spent in a phase over all jobs.
+     *
+     * @param phase the phase.
+     * @return the time in nanoseconds.
+     */
+    public long getNanos(CodecStats.Phase phase) {
+        return nanos[phase.ordinal()].sum();
+    }
+
+
+    @Override
+    public long getCompressJobs() {
+        return compressJobs.sum();
+    }
+
+
+    @Override
+    public long getDecompressJobs() {
+        return decompressJobs.sum();
+    }
+
+
+    @Override
+    public long getCompressBytesIn() {
+        return compressBytesIn.sum();
+    }
+
+
+    @Override
+    public long getCompressBytesOut() {
+        return compressBytesOut.sum();
+    }
+
+
+    @Override
+    public long getDecompressBytesIn() {
+        return decompressBytesIn.sum();
+    }
+
+
+    @Override
+    public long getDecompressBytesOut() {
+        return decompressBytesOut.sum();
+    }
+
+
+    @Override
+    public long getBlocks() {
+        return blocks.sum();
+    }
+
+
+    @Override
+    public double getCompressionRatio() {
+        long in = compressBytesIn.sum();
+        return in == 0 ? 0 : (double) compressBytesOut.sum() / in;
+    }
+
+
+    @Override
+    public double getAverageCodeLength() {
+        long n = codedBytes.sum();
+        return n == 0 ? 0 : (double) codeBits.sum() / n;
+    }
+
+
+    @Override
+    public double getEntropy() {
+        long n = codedBytes.sum();
+        return n == 0 ? 0 : entropyBits.sum() / n;
+    }
+
+
+    @Override
+    public long getReadMillis() {
+        return getNanos(CodecStats.Phase.READ) / 1000000;
+    }
+
+
+    @Override
+    public long getHistogramMillis() {
+        return getNanos(CodecStats.Phase.HISTOGRAM) / 1000000;
+    }
+
+
+    @Override
+    public long getTreeMillis() {
+        return getNanos(CodecStats.Phase.TREE) / 1000000;
+    }
+
+
+    @Override
+    public long getEncodeMillis() {
+        return getNanos(CodecStats.Phase.ENCODE) / 1000000;
+    }
+
+
+    @Override
+    public long getDecodeMillis() {
+        return getNanos(CodecStats.Phase.DECODE) / 1000000;
+    }
+
+
+    @Override
+    public long getWriteMillis() {
+        return getNanos(CodecStats.Phase.WRITE) / 1000000;
+    }
+
+
+    @Override
+    public long getElapsedMillis() {
+        return elapsed.sum() / 1000000;
+    }
+
+
+    @Override
+    public void reset() {
+        LongAdder[] adders = {compressJobs, decompressJobs, compressBytesIn, compressBytesOut, decompressBytesIn,
+            decompressBytesOut, blocks, codedBytes, codeBits, elapsed};
+        for (LongAdder adder : adders) {
+            adder.reset();
+        }
+        for (LongAdder adder : nanos) {
+            adder.reset();
+        }
+        entropyBits.reset();
+    }
+}
@@ -0,0 +1,110 @@
+package huffman;
+
+/**
+ * The management interface of {@link CodecMetrics}: totals over every compression and
+ * decompression job since the metrics were enabled or last reset.
+ *
+ * @author Jacob Gordon
+ */
+public interface CodecMetricsMBean {
+
+    /**
+     * @return whether jobs are measured.
+     */
+    boolean isEnabled();
+
+    /**
+     * @param enabled true to measure jobs from now on, false to stop.
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * @return the number of compression jobs finished.
+     */
+    long getCompressJobs();
+
+    /**
+     * @return the number of decompression jobs finished.
+     */
+    long getDecompressJobs();
+
+    /**
+     * @return the uncompressed bytes read by compression jobs.
+     */
+    long getCompressBytesIn();
+
+    /**
+     * @return the compressed bytes written by compression jobs.
+     */
+    long getCompressBytesOut();
+
+    /**
+     * @return the compressed bytes read by decompression jobs.
+     */
+    long getDecompressBytesIn();
+
+    /**
+     * @return the bytes written by decompression jobs.
+     */
+    long getDecompressBytesOut();
+
+    /**
+     * @return the number of blocks encoded and decoded.
+     */
+    long getBlocks();
+
+    /**
+     * @return compressed bytes out over uncompressed bytes in, over all compression jobs.
+     */
+    double getCompressionRatio();
+
+    /**
+     * @return the average code length of the encoded bytes, in bits.
+     */
+    double getAverageCodeLength();
+
+    /**
+     * @return the entropy of the encoded bytes, in bits per byte.
+     */
+    double getEntropy();
+
+    /**
+     * @return milliseconds spent in the {@link CodecStats.Phase#READ} phase.
+     */
+    long getReadMillis();
+
+    /**
+     * @return milliseconds spent in the {@link CodecStats.Phase#HISTOGRAM} phase.
+     */
+    long getHistogramMillis();
+
+    /**
+     * @return milliseconds spent in the {@link CodecStats.Phase#TREE} phase.
+     */
+    long getTreeMillis();
+
+    /**
+     * @return milliseconds spent in the {@link CodecStats.Phase#ENCODE} phase.
+     */
+    long getEncodeMillis();
+
+    /**
+     * @return milliseconds spent in the {@link CodecStats.Phase#DECODE} phase.
+     */
+    long getDecodeMillis();
+
+    /**
+     * @return milliseconds spent in the {@link CodecStats.Phase#WRITE} phase.
+     */
+    long getWriteMillis();
+
+    /**
+     * @return milliseconds from start to end of all jobs, added up.
+     */
+    long getElapsedMillis();
+
+    /**
+     * Sets every total back to 0.
+     */
+    void reset();
+}
@@ -0,0 +1,40 @@
+package huffman;
+
+/**
+ * Why a {@link HuffmanEncoder} or {@link HuffmanDecoder} stopped, in the manner of
+ * {@link java.nio.charset.CoderResult}.
+ *
+ * @author Jacob Gordon
+ */
+public enum CodecResult {
+
+    /**
+     * All of the input was used up: more input is needed to go on.
+     */
+    UNDERFLOW,
+
+    /**
+     * The output buffer is full: it must be drained, or another one given, to go on.
+     */
+    OVERFLOW;
+
+
+    /**
+     * Returns whether this is {@link #UNDERFLOW}.
+     *
+     * @return true if more input is needed.
+     */
+    public boolean isUnderflow() {
+        return this == UNDERFLOW;
+    }
+
+
+    /**
+     * Returns whether this is {@link #OVERFLOW}.
+     *
+     * @return true if more room for output is needed.
+     */
+    public boolean isOverflow() {
+        return this == OVERFLOW;
+    }
+}
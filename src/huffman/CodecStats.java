@@ -0,0 +1,350 @@
+package huffman;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What one compression or decompression job did and where its time went, as returned by
+ * {@link Huffman#compress(java.nio.file.Path, java.nio.file.Path)} and the other entry
+ * points.
+ *
+ * <p>Stats are only kept while {@link CodecMetrics} is enabled. Otherwise the job gets a
+ * stats object with nothing in it, and costs nothing more than one check of a flag, so
+ * {@link #isEnabled()} says whether the numbers mean anything. Time is measured per
+ * {@link Phase}; blocks encoded or decoded in parallel each add their own time, so the
+ * phases of a job can add up to more than its elapsed time. Once a job finishes its stats
+ * are added to the totals {@link CodecMetrics} publishes over JMX.</p>
+ *
+ * @author Jacob Gordon
+ */
+public final class CodecStats {
+
+    /**
+     * The parts of a job that are timed.
+     */
+    public enum Phase {
+        /**
+         * Reading input, not counting reads done while counting or encoding mapped files.
+         */
+        READ,
+        /**
+         * Counting byte values.
+         */
+        HISTOGRAM,
+        /**
+         * Building the tree and the canonical code from the counts, or reading the code
+         * of compressed data.
+         */
+        TREE,
+        /**
+         * Encoding bytes into codes.
+         */
+        ENCODE,
+        /**
+         * Decoding codes into bytes.
+         */
+        DECODE,
+        /**
+         * Writing output, where it is not written as it is encoded or decoded, and
+         * flushing it.
+         */
+        WRITE
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    /**
+     * Stats that are never kept, for work done outside any job, and for compression jobs
+     * while metrics are off.
+     */
+    static final CodecStats NONE = new CodecStats(false, true);
+
+    /**
+     * Stats that are never kept, for decompression jobs while metrics are off.
+     */
+    private static final CodecStats NONE_DECOMPRESSING = new CodecStats(false, false);
+
+    private final boolean enabled;
+    private final boolean compressing;
+    private final long start;
+    private long elapsed;
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder blocks = new LongAdder();
+    private final AtomicLongArray nanos = new AtomicLongArray(PHASES.length);
+
+    /**
+     * Bytes encoded, the bits their codes took, and the entropy of their values, for the
+     * average code length.
+     */
+    private final LongAdder codedBytes = new LongAdder();
+    private final LongAdder codeBits = new LongAdder();
+    private final DoubleAdder entropyBits = new DoubleAdder();
+
+
+    private CodecStats(boolean enabled, boolean compressing) {
+        this.enabled = enabled;
+        this.compressing = compressing;
+        this.start = enabled ? System.nanoTime() : 0;
+    }
+
+
+    /**
+     * Starts the stats of a job, kept only if metrics are enabled. Otherwise every job
+     * shares the same empty stats, so nothing is allocated.
+     *
+     * @param compressing true for compression, false for decompression.
+     * @return the job's stats.
+     */
+    static CodecStats begin(boolean compressing) {
+        if (!CodecMetrics.getInstance().isEnabled()) {
+            return compressing ? NONE : NONE_DECOMPRESSING;
+        }
+        return new CodecStats(true, compressing);
+    }
+
+
+    /**
+     * Ends a job, adding its stats to the totals.
+     *
+     * @return these stats.
+     */
+    CodecStats end() {
+        if (enabled) {
+            elapsed = System.nanoTime() - start;
+            CodecMetrics.getInstance().add(this);
+        }
+        return this;
+    }
+
+
+    /**
+     * Returns the time to pass to {@link #stop(Phase, long)} once a phase is done.
+     *
+     * @return the current time, or 0 if stats are not being kept.
+     */
+    long time() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+
+    /**
+     * Adds the time since the given start to a phase.
+     *
+     * @param phase the phase.
+     * @param since the start, from {@link #time()}.
+     */
+    void stop(Phase phase, long since) {
+        if (enabled) {
+            nanos.addAndGet(phase.ordinal(), System.nanoTime() - since);
+        }
+    }
+
+
+    void addBytesIn(long n) {
+        if (enabled) {
+            bytesIn.add(n);
+        }
+    }
+
+
+    void addBytesOut(long n) {
+        if (enabled) {
+            bytesOut.add(n);
+        }
+    }
+
+
+    void addBlock() {
+        if (enabled) {
+            blocks.increment();
+        }
+    }
+
+
+    /**
+     * Adds data encoded with the given code, for the average code length and entropy.
+     *
+     * @param counts the number of times each byte value occurs in the data.
+     * @param code the code it is encoded with.
+     */
+    void addCoded(long[] counts, CanonicalCode code) {
+        if (!enabled) {
+            return;
+        }
+        byte[] lengths = code.getLengths();
+        long total = 0;
+        long bits = 0;
+        for (int s = 0; s < 256; s++) {
+            total += counts[s];
+            bits += counts[s] * lengths[s];
+        }
+        double entropy = 0;
+        for (int s = 0; s < 256; s++) {
+            if (counts[s] > 0) {
+                entropy -= counts[s] * Math.log((double) counts[s] / total);
+            }
+        }
+        codedBytes.add(total);
+        codeBits.add(bits);
+        entropyBits.add(entropy / Math.log(2));
+    }
+
+
+    /**
+     * Returns whether stats were kept for this job.
+     *
+     * @return false if metrics were disabled when it started, and every number is 0.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+
+    /**
+     * Returns whether this job compressed or decompressed.
+     *
+     * @return true for compression.
+     */
+    public boolean isCompressing() {
+        return compressing;
+    }
+
+
+    /**
+     * Returns the number of bytes read: uncompressed when compressing, compressed when
+     * decompressing.
+     *
+     * @return the bytes in.
+     */
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+
+    /**
+     * Returns the number of bytes written.
+     *
+     * @return the bytes out.
+     */
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+
+    /**
+     * Returns the number of blocks encoded or decoded; a file in the canonical format is
+     * one block.
+     *
+     * @return the blocks processed.
+     */
+    public long getBlocks() {
+        return blocks.sum();
+    }
+
+
+    /**
+     * Returns the time spent in a phase, over every thread.
+     *
+     * @param phase the phase.
+     * @return the time in nanoseconds.
+     */
+    public long getNanos(Phase phase) {
+        return nanos.get(phase.ordinal());
+    }
+
+
+    /**
+     * Returns the time from the start of the job to its end.
+     *
+     * @return the time in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return elapsed;
+    }
+
+
+    /**
+     * Returns the size of the output as a fraction of the size of the input.
+     *
+     * @return bytes out over bytes in, or 0 if there was no input.
+     */
+    public double getRatio() {
+        long in = getBytesIn();
+        return in == 0 ? 0 : (double) getBytesOut() / in;
+    }
+
+
+    /**
+     * Returns the number of uncompressed bytes handled each second.
+     *
+     * @return the throughput in bytes per second.
+     */
+    public double getThroughput() {
+        return elapsed == 0 ? 0 : (compressing ? getBytesIn() : getBytesOut()) * 1e9 / elapsed;
+    }
+
+
+    /**
+     * Returns the average length of the codes bytes were encoded with, not counting
+     * stored blocks or the tables. Only known when compressing.
+     *
+     * @return bits per byte, or 0 if nothing was encoded.
+     */
+    public double getAverageCodeLength() {
+        long n = codedBytes.sum();
+        return n == 0 ? 0 : (double) codeBits.sum() / n;
+    }
+
+
+    /**
+     * Returns the entropy of the bytes that were encoded, the shortest average code
+     * length any code for single bytes could have reached. Only known when compressing.
+     *
+     * @return bits per byte, or 0 if nothing was encoded.
+     */
+    public double getEntropy() {
+        long n = codedBytes.sum();
+        return n == 0 ? 0 : entropyBits.sum() / n;
+    }
+
+
+    long getCodedBytes() {
+        return codedBytes.sum();
+    }
+
+
+    long getCodeBits() {
+        return codeBits.sum();
+    }
+
+
+    double getEntropyBits() {
+        return entropyBits.sum();
+    }
+
+
+    @Override
+    public String toString() {
+        if (!enabled) {
+            return "CodecStats[disabled]";
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%s %d -> %d bytes, %d blocks in %.3f ms",
+                compressing ? "compressed" : "decompressed", getBytesIn(), getBytesOut(), getBlocks(),
+                elapsed / 1e6));
+        for (Phase phase : PHASES) {
+            long n = getNanos(phase);
+            if (n > 0) {
+                sb.append(String.format(Locale.ROOT, ", %s %.3f ms", phase.name().toLowerCase(Locale.ROOT), n / 1e6));
+            }
+        }
+        if (getCodedBytes() > 0) {
+            sb.append(String.format(Locale.ROOT, ", %.3f bits/byte (entropy %.3f)", getAverageCodeLength(),
+                    getEntropy()));
+        }
+        return sb.toString();
+    }
+}
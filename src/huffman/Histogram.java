@@ -0,0 +1,219 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Counts how many times each byte value occurs in some data, to build a tree from.
+ *
+ * <p>Counting is done in primitive arrays. Consecutive bytes are counted in
+ * {@link #LANES} separate arrays that are only added together at the end, so that a run
+ * of the same byte value does not make every increment wait for the one before it to be
+ * stored. Inputs of at least {@link #PARALLEL_MIN_BYTES} bytes are cut into chunks that are
+ * counted on the common ForkJoinPool and then merged.</p>
+ *
+ * <p>A histogram can be built up over several calls, for data that arrives in pieces, and
+ * passed to {@link Huffman#Huffman(Histogram)}.</p>
+ *
+ * @author Jacob Gordon
+ */
+public class Histogram {
+
+    /**
+     * Number of counter arrays bytes are spread over.
+     */
+    public static final int LANES = 4;
+
+    /**
+     * Smallest input counted in parallel by {@link #of(byte[])} and {@link #of(ByteBuffer)}.
+     */
+    public static final int PARALLEL_MIN_BYTES = 1 << 22;
+
+    /**
+     * Number of bytes counted by each parallel task.
+     */
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    /**
+     * Count of each byte value, indexed by its unsigned value.
+     */
+    private final long[] counts = new long[256];
+
+    /**
+     * Number of bytes counted.
+     */
+    private long total;
+
+
+    /**
+     * Creates an empty histogram.
+     */
+    public Histogram() {
+    }
+
+
+    /**
+     * Counts the given bytes, in parallel if there are enough of them.
+     *
+     * @param bytes the data.
+     * @return the histogram of the data.
+     */
+    public static Histogram of(byte[] bytes) {
+        return of(ByteBuffer.wrap(bytes));
+    }
+
+
+    /**
+     * Counts the remaining bytes of the given buffer, in parallel if there are enough of
+     * them. The buffer's position is left where it is.
+     *
+     * @param src the data.
+     * @return the histogram of the data.
+     */
+    public static Histogram of(ByteBuffer src) {
+        Histogram histogram = new Histogram();
+        if (src.remaining() < PARALLEL_MIN_BYTES) {
+            histogram.add(src.duplicate());
+            return histogram;
+        }
+        List<ForkJoinTask<Histogram>> chunks = new ArrayList<ForkJoinTask<Histogram>>();
+        for (int off = src.position(); off < src.limit(); off += CHUNK_SIZE) {
+            final ByteBuffer chunk = src.duplicate();
+            chunk.position(off);
+            chunk.limit(Math.min(off + CHUNK_SIZE, src.limit()));
+            chunks.add(ForkJoinPool.commonPool().submit(() -> {
+                Histogram part = new Histogram();
+                part.add(chunk);
+                return part;
+            }));
+        }
+        for (ForkJoinTask<Histogram> chunk : chunks) {
+            histogram.add(chunk.join());
+        }
+        return histogram;
+    }
+
+
+    /**
+     * Counts the given bytes.
+     *
+     * @param bytes the array holding the data.
+     * @param off index of the first byte to count.
+     * @param len number of bytes to count.
+     */
+    public void add(byte[] bytes, int off, int len) {
+        int[] lanes = new int[LANES * 256];
+        int i = off;
+        int end = off + len;
+        for (; i + 3 < end; i += 4) {
+            lanes[bytes[i] & 0xff]++;
+            lanes[256 + (bytes[i + 1] & 0xff)]++;
+            lanes[512 + (bytes[i + 2] & 0xff)]++;
+            lanes[768 + (bytes[i + 3] & 0xff)]++;
+        }
+        for (; i < end; i++) {
+            lanes[bytes[i] & 0xff]++;
+        }
+        merge(lanes, len);
+    }
+
+
+    /**
+     * Counts the remaining bytes of the given buffer, reading it in place. The buffer's
+     * position is moved to its limit.
+     *
+     * @param src the data.
+     */
+    public void add(ByteBuffer src) {
+        if (src.hasArray()) {
+            add(src.array(), src.arrayOffset() + src.position(), src.remaining());
+            src.position(src.limit());
+            return;
+        }
+        int[] lanes = new int[LANES * 256];
+        int i = src.position();
+        int end = src.limit();
+        for (; i + 7 < end; i += 8) {
+            // eight bytes at a time, two to a lane
+            long word = src.getLong(i);
+            lanes[(int) (word >>> 56)]++;
+            lanes[256 + (int) ((word >>> 48) & 0xff)]++;
+            lanes[512 + (int) ((word >>> 40) & 0xff)]++;
+            lanes[768 + (int) ((word >>> 32) & 0xff)]++;
+            lanes[(int) ((word >>> 24) & 0xff)]++;
+            lanes[256 + (int) ((word >>> 16) & 0xff)]++;
+            lanes[512 + (int) ((word >>> 8) & 0xff)]++;
+            lanes[768 + (int) (word & 0xff)]++;
+        }
+        for (; i < end; i++) {
+            lanes[src.get(i) & 0xff]++;
+        }
+        merge(lanes, src.remaining());
+        src.position(end);
+    }
+
+
+    /**
+     * Adds the counts of another histogram to this one.
+     *
+     * @param other the histogram to add.
+     */
+    public void add(Histogram other) {
+        for (int s = 0; s < 256; s++) {
+            counts[s] += other.counts[s];
+        }
+        total += other.total;
+    }
+
+
+    /**
+     * Adds counts from the lane arrays.
+     *
+     * @param lanes {@link #LANES} arrays of 256 counts, end to end.
+     * @param len the number of bytes counted in them.
+     */
+    private void merge(int[] lanes, long len) {
+        for (int s = 0; s < 256; s++) {
+            long count = 0;
+            for (int lane = 0; lane < LANES; lane++) {
+                count += lanes[lane * 256 + s];
+            }
+            counts[s] += count;
+        }
+        total += len;
+    }
+
+
+    /**
+     * Returns the count of the given byte value.
+     *
+     * @param value the byte value, from 0 to 255.
+     * @return the number of times it was counted.
+     */
+    public long getCount(int value) {
+        return counts[value];
+    }
+
+
+    /**
+     * Returns the count of every byte value.
+     *
+     * @return a copy of the counts, indexed by each byte's unsigned value.
+     */
+    public long[] getCounts() {
+        return counts.clone();
+    }
+
+
+    /**
+     * Returns the number of bytes counted.
+     *
+     * @return the sum of all counts.
+     */
+    public long getTotal() {
+        return total;
+    }
+}
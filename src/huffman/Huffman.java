@@ -1,19 +1,12 @@
 package huffman;
 
-import javax.xml.soap.Node;
 import java.io.*;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.Deque;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Queue;
+import java.util.Arrays;
 
 /**
  * Models a Huffman tree and provides both Huffman coding and decoding services.
@@ -22,6 +15,15 @@ import java.util.Queue;
  * node. That is, the root node may never also be a leaf node.</p>
  * <p>When encoding, a Huffman tree writes the following data to the output stream:
  * <ul>
+ * <li>the magic bytes {@link #MAGIC} and a version byte, {@link #VERSION_CANONICAL}
+ * <li>the number of bytes to be encoded, as an unsigned varint (7 bits per byte, low
+ * bits first, high bit set on every byte but the last)
+ * <li>the code length of each byte value, as written by {@link CanonicalCode#write(BitWriter)}
+ * <li>the encoding data, which consists of the canonical code for each original data byte.
+ * </ul>
+ * </p>
+ * <p>Files in the original (legacy) format hold:
+ * <ul>
  * <li>the number of bytes to be encoded (as an int, so 4 bytes, big-endian)
  * <li>the Huffman tree used for the encoding. This is specified using a pre-order
  * DFS traversal of the tree, indicating each internal nodes with a 0 bit and each leaf
@@ -30,7 +32,12 @@ import java.util.Queue;
  * paths through the given Huffman tree to the the leaf node corresponding to each
  * original data byte.
  * </ul>
- * </p>
+ * The legacy format is no longer written, since a tree too deep for a canonical code is
+ * given the best code within {@link CanonicalCode#MAX_CODE_LENGTH} bits by
+ * {@link LengthLimiter} instead, but it is still read. Files can also be in the block
+ * container format written by {@link BlockCompressor} or the adaptive format written by
+ * {@link AdaptiveHuffman}, and all four are read by {@link #decompress(InputStream, OutputStream)}. A legacy file never starts with
+ * the first magic byte, since that would make a negative byte count.</p>
  * When decoding, the input stream must provide the data in exactly the format as output
  * by the encoding algorithm. If not, the resulting behavior is undefined.
  *
@@ -46,9 +53,65 @@ public class Huffman {
     public static final String HUFF_EXT = ".huff";
 
     /**
-     * Root to store all data out of.
+     * Bytes at the start of every versioned .huff file.
      */
-    private HuffmanNode<Byte> root;
+    public static final byte[] MAGIC = {(byte) 0x89, 'H'};
+
+    /**
+     * Version byte of the canonical code format.
+     */
+    public static final int VERSION_CANONICAL = 1;
+
+    /**
+     * Version byte of the block container format written by {@link BlockCompressor}.
+     */
+    public static final int VERSION_BLOCKS = 2;
+
+    /**
+     * Version byte of the single-pass adaptive format written by {@link AdaptiveHuffman}.
+     */
+    public static final int VERSION_ADAPTIVE = 3;
+
+    /**
+     * Number of bytes read at a time when compressing a file.
+     */
+    public static final int FILE_CHUNK_SIZE = 1 << 18;
+
+    /**
+     * Smallest legacy .huff file decoded in parallel by {@link SpeculativeDecoder}.
+     */
+    public static final long SPECULATIVE_MIN_BYTES = 1 << 22;
+
+    /**
+     * Most nodes a tree over byte values can have: a leaf for each value, plus one fewer
+     * internal nodes.
+     */
+    private static final int MAX_NODES = 2 * 256 - 1;
+
+    /**
+     * The tree's nodes, as parallel arrays indexed by node number. An internal node has
+     * the numbers of its two children in left and right; a leaf has -1 in both and its
+     * byte value in symbol. Nodes are never allocated one by one.
+     */
+    private short[] left;
+    private short[] right;
+    private byte[] symbol;
+
+    /**
+     * The count in each node: how often its byte value occurs for a leaf, or the sum of its
+     * children's counts for an internal node. All 0 in a tree read from a file.
+     */
+    private long[] weight;
+
+    /**
+     * Number of the root node.
+     */
+    private int root;
+
+    /**
+     * Number of nodes in use.
+     */
+    private int nodes;
 
     /**
      * Number of Bytes to load if loading a .huff file.
@@ -60,53 +123,112 @@ public class Huffman {
      */
     private BitReader input;
 
+    /**
+     * Table of this tree's paths used by encode; built on first use.
+     */
+    private CodeTable codeTable;
+
 
     /**
      * Builds a Huffman tree suitable for encoding the given byte array.
      * <p>The tree will contain 1 leaf node for each unique byte value and each leaf
      * will contain a count of that byte value's frequency in the data.</p>
-     * <p>If the byte array is of size 0, no tree is constructed (ie, the root will still
-     * be null.)</p>
      * The root node cannot be a leaf node. This is because the encoding is comprised of
      * left and right movements from the root, and so no bit pattern corresponds to the root
-     * node itself. Therefore, if there is only a single unique byte, an extra dummy leaf
-     * node with a byte value of 0 and a count of 0 will be created but not used.
+     * node itself. Therefore, if there are fewer than two unique bytes, extra dummy leaf
+     * nodes with a count of 0 will be created but not used.
      *
      * @param bytes The complete data to be encoded using this tree.
      */
     public Huffman(byte[] bytes) {
-        // map each byte value to its frequency count
-        Map<Byte, Integer> values = new HashMap<Byte, Integer>();
-        for (byte b : bytes) {
-            if (values.containsKey(b)) {
-                values.put(b, values.get(b) + 1); // add one to current count
-            } else {
-                values.put(b, 1);
-            }
-        }
+        // count each byte value's frequency
+        this(Histogram.of(bytes));
+    }
+
 
-        // load a priority queue with TreeNodes of all unique byte values &
-        // corresponding counts
-        Queue<HuffmanNode<Byte>> pq = new PriorityQueue<HuffmanNode<Byte>>();
-        for (Byte b : values.keySet()) {
-            pq.add(new HuffmanNode<Byte>(b, values.get(b)));
+    /**
+     * Builds a Huffman tree from an already computed histogram of the data to encode,
+     * just as {@link #Huffman(byte[])} does from the data itself.
+     *
+     * @param histogram the count of each byte value in the data.
+     */
+    public Huffman(Histogram histogram) {
+        this(histogram.getCounts());
+    }
+
+
+    /**
+     * Builds a Huffman tree from the given frequency count of each byte value, as an
+     * alternative to counting them from a byte array.
+     * <p>The tree will contain 1 leaf node for each byte value with a count above 0,
+     * along with dummy leaves if there are fewer than two such values, just as
+     * {@link #Huffman(byte[])} does.</p>
+     * <p>The tree is built with two queues instead of a priority queue: the leaves, sorted
+     * by count, and the internal nodes, which are made in order of increasing count
+     * anyway. The two smallest nodes are always at the front of one or the other, so each
+     * merge is done in constant time.</p>
+     *
+     * @param counts the number of times each byte value occurs, indexed by the byte's
+     *     unsigned value.
+     */
+    public Huffman(long[] counts) {
+        if (counts.length != 256) {
+            throw new IllegalArgumentException("Expected 256 counts, got " + counts.length);
         }
+        allocate(MAX_NODES);
 
-        while (pq.size() < 2) {
-            // add an extra dummy leaf node with count of 0
-            pq.add(new HuffmanNode<Byte>((byte) 0, 0));
+        // the leaves, smallest count first; ties in order of byte value
+        int[] leaves = new int[256];
+        int n = 0;
+        for (int s = 0; s < 256; s++) {
+            if (counts[s] > 0) {
+                leaves[n++] = s;
+            }
+        }
+        for (int s = 0; n < 2; s++) {
+            if (counts[s] <= 0) {
+                // add an extra dummy leaf node with count of 0
+                leaves[n++] = s;
+            }
+        }
+        sortByCount(leaves, n, counts);
+        for (int i = 0; i < n; i++) {
+            newNode(-1, -1, (byte) leaves[i], Math.max(counts[leaves[i]], 0));
         }
 
-        // build tree of nodes by grabbing next two smallest counts from front of
-        // of PQ, building a parent node to connect the two, and putting the new
-        // parent back into the PQ. Repeat until only one node left: root of the
-        // new Huffman tree
-        while (pq.size() > 1) {
-            pq.offer(new HuffmanNode<Byte>(pq.poll(), pq.poll()));
+        // leaves are nodes 0 to n - 1; internal nodes are queued after them as they are made
+        int nextLeaf = 0;
+        int nextInternal = n;
+        while (nodes < 2 * n - 1) {
+            int first = (nextLeaf < n && (nextInternal == nodes || weight[nextLeaf] <= weight[nextInternal]))
+                    ? nextLeaf++ : nextInternal++;
+            int second = (nextLeaf < n && (nextInternal == nodes || weight[nextLeaf] <= weight[nextInternal]))
+                    ? nextLeaf++ : nextInternal++;
+            newNode(first, second, (byte) 0, weight[first] + weight[second]);
         }
+        this.root = nodes - 1;
+    }
 
-        // store root of finished tree (maybe to null if pq is empty)
-        this.root = (pq.size() > 0) ? pq.poll() : null;
+
+    /**
+     * Sorts the first n byte values of the given array by their counts, smallest first,
+     * keeping values with equal counts in the order they are in.
+     *
+     * @param values the byte values.
+     * @param n how many of them to sort.
+     * @param counts the count of each byte value.
+     */
+    private static void sortByCount(int[] values, int n, long[] counts) {
+        // insertion sort: there are never more than 256
+        for (int i = 1; i < n; i++) {
+            int value = values[i];
+            int j = i - 1;
+            while (j >= 0 && counts[values[j]] > counts[value]) {
+                values[j + 1] = values[j];
+                j--;
+            }
+            values[j + 1] = value;
+        }
     }
 
 
@@ -122,32 +244,122 @@ public class Huffman {
     public Huffman(BitReader input) throws IOException {
         //get the head first from the
         //first four bytes
+        this(readHeader(input), input);
+    }
+
+
+    /**
+     * Builds a Huffman tree as read from the given input bit stream, once its byte count
+     * header has been read.
+     *
+     * @param head the number of bytes encoded after the tree.
+     * @param input a BitReader at the start of the pre-order traversal of the Huffman.
+     * @throws IOException If the tree is invalid.
+     */
+    private Huffman(int head, BitReader input) throws IOException {
+        this.head = head;
+        this.input = input;
+        //build our tree structure
+        allocate(MAX_NODES);
+        this.root = readNode(input);
+    }
+
+
+    /**
+     * Reads the byte count header of a legacy .huff file.
+     *
+     * @param input a BitReader at the start of the file.
+     * @return the header's four bytes.
+     */
+    private static byte[] readHeader(BitReader input) {
         int n = 4;
         byte[] header = new byte[n];
         for (int i = 0; i < n; i++) header[i] = input.readByte();
-        this.head = new BigInteger(header).intValue();
-        this.input = input;
-        //build our tree structure
-        buildTree(input, root = new HuffmanNode<Byte>(null, 0));
+        return header;
     }
 
+
     /**
-     * Recursive helper function to build our tree from binary data.
+     * Builds a legacy Huffman tree from its already-read byte count header.
+     *
+     * @param header the byte count, as a 4-byte big-endian int.
+     * @param input a BitReader at the start of the pre-order traversal of the Huffman.
+     * @throws IOException If the tree is invalid.
+     */
+    private Huffman(byte[] header, BitReader input) throws IOException {
+        this(new BigInteger(header).intValue(), input);
+    }
+
+
+    /**
+     * Makes room for the given number of nodes.
+     *
+     * @param capacity the number of nodes.
+     */
+    private void allocate(int capacity) {
+        left = new short[capacity];
+        right = new short[capacity];
+        symbol = new byte[capacity];
+        weight = new long[capacity];
+    }
+
+
+    /**
+     * Adds a node to the tree.
+     *
+     * @param l the number of the left child, or -1 for a leaf.
+     * @param r the number of the right child, or -1 for a leaf.
+     * @param value the byte value of a leaf.
+     * @param count the node's count.
+     * @return the number of the new node.
+     */
+    private int newNode(int l, int r, byte value, long count) {
+        int node = nodes++;
+        left[node] = (short) l;
+        right[node] = (short) r;
+        symbol[node] = value;
+        weight[node] = count;
+        return node;
+    }
+
+
+    /**
+     * Reads a node and everything below it from a pre-order traversal.
+     * 0 means inside node, it will be followed by its left and then its right child;
+     * 1 means leaf, it is followed by a byte = its data.
+     *
+     * @param input bitreader to read our data.
+     * @return the number of the node read.
+     * @throws IOException If there are more nodes than a tree over byte values can have.
+     */
+    private int readNode(BitReader input) throws IOException {
+        if (nodes == MAX_NODES) {
+            throw new IOException("Invalid Huffman tree in input");
+        }
+        if (input.read()) {//if its 1
+            //leaf
+            return newNode(-1, -1, input.readByte(), 0);
+        }
+        //inside
+        int node = newNode(-1, -1, (byte) 0, 0);
+        //check left, then right
+        left[node] = (short) readNode(input);
+        right[node] = (short) readNode(input);
+        return node;
+    }
+
+
+    /**
+     * Builds a tree of HuffmanNodes from binary data, below the given parent.
      * 0 means inside node, it will be followed by a 0 or a 1
      * 1 means leaf, it is followed by a byte = its data
      * Check left, right
+     * <p>Huffman itself keeps its tree in arrays instead, so this is only of use to callers
+     * that want a HuffmanNode tree.</p>
      * @param input bitreader to read our data.
      * @param parent node we are currently looking at.
      */
     public void buildTree(BitReader input, HuffmanNode parent) {
-        /**
-         * if 0, inside node
-         *       check the left child, right recursively
-         * if 1, then you know you are on a life. set the data
-         *
-         *
-         */
-
         if (input.read()) {//if its 1
             //leaf
             parent.setData(input.readByte());
@@ -166,47 +378,80 @@ public class Huffman {
     }
 
 
+    /**
+     * True if the given node has no children.
+     *
+     * @param node the node's number.
+     * @return true for a leaf.
+     */
+    private boolean isLeaf(int node) {
+        return left[node] < 0;
+    }
+
+
     /**
      * Reads bits from the given reader, decoding the given number of byte values before
      * stopping. Writes decoded bytes to
      * the given output stream.
+     * <p>Decoding goes through a {@link StateMachineDecoder}, so up to seven bits past the
+     * last code may be read as well.</p>
      *
      * @param bytes The number of value to decode according to this tree
      * @param in The reader to read bits from
      * @param out Where to write decode byte values
      * @throws IOException If can't read/write from/to streams
      */
-    public void decode(int bytes, BitReader in, OutputStream out) throws IOException {
-        int c = 0;
-        //traverse data byte times.
-        while (c < bytes) { decode(root, in, out); c++; }
+    public void decode(long bytes, BitReader in, OutputStream out) throws IOException {
+        if (!isLeaf(root)) {
+            // follow the paths a whole input byte at a time
+            newStateMachineDecoder().decode(bytes, in, out);
+            return;
+        }
+        //traverse data byte times, a bit at a time from the root to a leaf.
+        for (long c = 0; c < bytes; c++) {
+            int node = root;
+            while (!isLeaf(node)) {
+                node = in.read() ? right[node] : left[node];
+            }
+            out.write(symbol[node]);
+        }
     }
 
+
     /**
-     * Recursive helper function for the decode method.
-     * @param node HuffmanNode we are currently looking at
-     * @param in BitReader that points to traversal data.
-     * @param out OutputStream to write the new data too.
-     * @throws IOException
+     * Builds a decoder that follows this tree's paths a byte of input at a time.
+     *
+     * @return the decoder; this tree's root must not be a leaf.
      */
-    private void decode(HuffmanNode node, BitReader in, OutputStream out) throws IOException {
-        if (in.read()) {
-            //go right
-            if (node.getRight().isLeaf()) {
-                out.write((Byte) node.getRight().getData());
-                return;
-            } else {
-                decode(node.getRight(), in, out);
-            }
-        } else {
-            //go left
-            if (node.getLeft().isLeaf()) {
-               out.write((Byte) node.getLeft().getData());
-               return;
-            } else {
-                decode(node.getLeft(), in, out);
-            }
+    StateMachineDecoder newStateMachineDecoder() {
+        return new StateMachineDecoder(left, right, symbol, nodes, root);
+    }
+
+    /**
+     * Builds a table decoder for the paths through this tree.
+     *
+     * @return the decoder, or null if this tree is deeper than
+     *     {@link TableDecoder#MAX_CODE_LENGTH}.
+     */
+    TableDecoder newDecoder() {
+        if (depth(root) > TableDecoder.MAX_CODE_LENGTH) {
+            return null;
         }
+        int[] codes = new int[256];
+        byte[] lengths = new byte[256];
+        loadPaths(codes, lengths, root, 0, 0);
+        return new TableDecoder(codes, lengths);
+    }
+
+
+    /**
+     * Returns the number of bytes encoded after this tree, if it was read from a
+     * legacy .huff file.
+     *
+     * @return the byte count from the file's header.
+     */
+    int getHead() {
+        return head;
     }
 
 
@@ -219,17 +464,40 @@ public class Huffman {
      * @throws IOException If there is a problem writing to stream.
      */
     public void encode(byte[] bytes, BitWriter out) throws IOException {
-        if (this.root == null) {
-            return; // can't encode anything
+        encode(bytes, 0, bytes.length, out);
+    }
+
+
+    /**
+     * Encodes part of the given bytes based on this tree's structure, writing the
+     * resulting bits to the given output stream.
+     *
+     * @param bytes the bytes to encode.
+     * @param off index of the first byte to encode.
+     * @param len number of bytes to encode.
+     * @param out the BitWriter.
+     * @throws IOException If there is a problem writing to stream.
+     */
+    public void encode(byte[] bytes, int off, int len, BitWriter out) throws IOException {
+        if (codeTable == null && depth(root) <= TableDecoder.MAX_CODE_LENGTH) {
+            // get flat arrays of the bit-path to each leaf node, once
+            int[] codes = new int[256];
+            byte[] lengths = new byte[256];
+            loadPaths(codes, lengths, root, 0, 0);
+            codeTable = new CodeTable(codes, lengths);
+        }
+        if (codeTable != null) {
+            codeTable.encode(bytes, off, len, out);
+            return;
         }
-        // get a dictionary mapping of byte values to bit-paths to leaf node
-        Map<Byte, List<Boolean>> dict = new HashMap<Byte, List<Boolean>>();
-        loadPaths(dict, this.root, new ArrayDeque<Boolean>());
 
-        // use map to write out encoded bytes
-        for (byte b : bytes) {
-            List<Boolean> path = dict.get(b);
-            for (boolean bit : path) {
+        // paths too long for an int: get the bit-path to each leaf node as booleans
+        boolean[][] paths = new boolean[256][];
+        loadPaths(paths, root, new boolean[depth(root)], 0);
+
+        // use the paths to write out encoded bytes
+        for (int i = off; i < off + len; i++) {
+            for (boolean bit : paths[bytes[i] & 0xff]) {
                 out.write(bit);
             }
         }
@@ -237,38 +505,124 @@ public class Huffman {
 
 
     /**
-     * Loads the given map with paths through this tree to each unique leaf-node byte
+     * Loads the given array with paths through this tree to each unique leaf-node byte
      * value. Paths are given as false and true booleans for 0/left and 1/right,
      * respectively.
      *
-     * @param paths The map to load
+     * @param paths The array to load, indexed by each byte's unsigned value.
      * @param node The current node to consider in a path from root to leaf
-     * @param path The path so far from root to the current node; should be empty
-     *     in the initial call to this recursive method.
+     * @param path The path so far from root to the current node, in its first depth entries.
+     * @param depth The length of the path so far; 0 initially.
      */
-    private static void loadPaths(Map<Byte, List<Boolean>> paths, HuffmanNode<Byte> node,
-                                  Deque<Boolean> path) {
-        if (node == null) {
-            assert false : "Fell off the tree, which should never happen.";
-            return;
-        } else if (node.getData() == null) { // this is an internal node
+    private void loadPaths(boolean[][] paths, int node, boolean[] path, int depth) {
+        if (!isLeaf(node)) { // this is an internal node
             // first, go left
-            path.addLast(false); // 0
-            loadPaths(paths, node.getLeft(), path);
-            path.removeLast();
+            path[depth] = false; // 0
+            loadPaths(paths, left[node], path, depth + 1);
 
             // now go right
-            path.addLast(true); // 1
-            loadPaths(paths, node.getRight(), path);
-            path.removeLast();
-            return;
+            path[depth] = true; // 1
+            loadPaths(paths, right[node], path, depth + 1);
         } else {
-            // a leaf node, so save copy of path into paths map
-            paths.put(node.getData(), new ArrayList<Boolean>(path));
+            // a leaf node, so save copy of path into paths array
+            paths[symbol[node] & 0xff] = Arrays.copyOf(path, depth);
         }
     }
 
 
+    /**
+     * Returns the canonical code with the same code lengths as this tree. It compresses
+     * exactly as well as the tree's own paths, but can be stored as just its lengths. If the
+     * tree is deeper than {@link CanonicalCode#MAX_CODE_LENGTH}, the code is instead the best
+     * one whose codes are no longer than that.
+     *
+     * @return the canonical code.
+     */
+    public CanonicalCode getCanonicalCode() {
+        return getCanonicalCode(CanonicalCode.MAX_CODE_LENGTH);
+    }
+
+
+    /**
+     * Returns a canonical code for this tree's byte values with no code longer than the
+     * given length: the one with the same code lengths as the tree if it is shallow enough,
+     * or else the best length-limited code for the counts in its leaves, as found by
+     * {@link LengthLimiter#limit(long[], int)}.
+     *
+     * @param maxLength the longest code allowed, from 1 to {@link CanonicalCode#MAX_CODE_LENGTH}.
+     * @return the canonical code.
+     */
+    public CanonicalCode getCanonicalCode(int maxLength) {
+        byte[] lengths = new byte[256];
+        if (depth(root) <= maxLength) {
+            loadPaths(new int[256], lengths, root, 0, 0);
+        } else {
+            // count a leaf of a tree read from a file as 1, so that it keeps its code
+            long[] counts = new long[256];
+            for (int node = 0; node < nodes; node++) {
+                if (isLeaf(node)) {
+                    counts[symbol[node] & 0xff] = Math.max(weight[node], 1);
+                }
+            }
+            lengths = LengthLimiter.limit(counts, maxLength);
+        }
+        return new CanonicalCode(lengths);
+    }
+
+
+    /**
+     * Returns the number of bits this tree's paths take to encode the data it was built for.
+     *
+     * @return the sum of each byte value's count times the length of its path.
+     */
+    long getEncodedBits() {
+        // every byte below an internal node takes one bit to get past it
+        long bits = 0;
+        for (int node = 0; node < nodes; node++) {
+            if (!isLeaf(node)) {
+                bits += weight[node];
+            }
+        }
+        return bits;
+    }
+
+
+    /**
+     * Loads the given arrays with the path through this tree to each unique leaf-node
+     * byte value, packed into the low bits of an int with the first step in the most
+     * significant position. Only usable for trees no deeper than 32.
+     *
+     * @param codes the path to each byte value, indexed by its unsigned value.
+     * @param lengths the length of each path; stays 0 for values not in the tree.
+     * @param node The current node to consider in a path from root to leaf
+     * @param code The path so far from root to the current node; 0 initially.
+     * @param depth The length of the path so far; 0 initially.
+     */
+    private void loadPaths(int[] codes, byte[] lengths, int node, int code, int depth) {
+        if (!isLeaf(node)) { // this is an internal node
+            loadPaths(codes, lengths, left[node], code << 1, depth + 1); // 0
+            loadPaths(codes, lengths, right[node], (code << 1) | 1, depth + 1); // 1
+        } else {
+            codes[symbol[node] & 0xff] = code;
+            lengths[symbol[node] & 0xff] = (byte) depth;
+        }
+    }
+
+
+    /**
+     * Returns the length of the longest path from the given node to a leaf.
+     *
+     * @param node the root of the subtree to measure.
+     * @return the depth of the subtree, or 0 for a leaf.
+     */
+    private int depth(int node) {
+        if (isLeaf(node)) {
+            return 0;
+        }
+        return 1 + Math.max(depth(left[node]), depth(right[node]));
+    }
+
+
     /**
      * Writes this tree in byte-encoded form to the given bit writer.
      *
@@ -280,30 +634,40 @@ public class Huffman {
     }
 
 
-    private static void write(HuffmanNode<Byte> node, BitWriter out) throws IOException {
-        if (node == null) {
-            return;
+    private void write(int node, BitWriter out) throws IOException {
+        if (!isLeaf(node)) {
+            // internal node
+            out.write(0);
+            write(left[node], out);
+            write(right[node], out);
         } else {
-            if (node.getData() == null) {
-                // internal node
-                out.write(0);
-            } else {
-                // leaf node
-                out.write(1);
-                out.writeByte(node.getData());
-            }
-            write(node.getLeft(), out);
-            write(node.getRight(), out);
+            // leaf node
+            out.write(1);
+            out.writeByte(symbol[node]);
         }
     }
 
 
     /**
-     * Returns a multiline pre-order traversal this Huffman tree.
+     * Returns a multiline pre-order traversal this Huffman tree: each node on its own line,
+     * preceded by "&lt;" for each step left and "&gt;" for each step right from the root,
+     * showing its byte value ("*" for internal nodes) and its count.
      */
     @Override
     public String toString() {
-        return (this.root == null) ? "" : this.root.toFullString("|");
+        StringBuilder str = new StringBuilder();
+        toString(str, root, "|");
+        return str.toString();
+    }
+
+
+    private void toString(StringBuilder str, int node, String prefix) {
+        str.append(prefix).append(isLeaf(node) ? String.valueOf(symbol[node]) : "*")
+                .append(" (x ").append(weight[node]).append(")\n");
+        if (!isLeaf(node)) {
+            toString(str, left[node], prefix + "<");
+            toString(str, right[node], prefix + ">");
+        }
     }
 
 
@@ -319,16 +683,7 @@ public class Huffman {
      * @see #compress(InputStream, OutputStream)
      */
     public static void compress(String filename) throws IOException {
-        String out = filename + HUFF_EXT;
-        BufferedInputStream filein = new BufferedInputStream(new FileInputStream(filename));
-        BufferedOutputStream fileout = new BufferedOutputStream(new FileOutputStream(out));
-        try {
-            compress(filein, fileout);
-        } finally {
-            // close streams, even if an IOException flies by
-            filein.close();
-            fileout.close();
-        }
+        compress(Paths.get(filename), Paths.get(filename + HUFF_EXT));
     }
 
     /**
@@ -342,57 +697,238 @@ public class Huffman {
      * @see #compress(InputStream, OutputStream)
      */
     public static void compress(String fileName, String filenameOut) throws IOException {
-        String out = filenameOut + HUFF_EXT;
-        BufferedInputStream filein = new BufferedInputStream(new FileInputStream(fileName));
-        BufferedOutputStream fileout = new BufferedOutputStream(new FileOutputStream(out));
-        try {
-            compress(filein, fileout);
-        } finally {
-            // close streams, even if an IOException flies by
-            filein.close();
-            fileout.close();
+        compress(Paths.get(fileName), Paths.get(filenameOut + HUFF_EXT));
+    }
+
+
+    /**
+     * Compresses the given file into the given output file, without ever holding the
+     * whole input in memory. A file of up to {@link BlockCompressor#DEFAULT_BLOCK_SIZE}
+     * bytes is read and written through memory-mapped windows by {@link MappedCodec}. A
+     * longer one is written as a block container by {@link BlockCompressor}, so that each
+     * block gets a code of its own, or is stored if it does not compress.
+     *
+     * @param in the file to compress.
+     * @param out the file to write; replaced if it exists.
+     * @return the job's stats, if metrics are enabled; see {@link CodecMetrics}.
+     * @throws IOException If cannot read/write files, or the input changes size between passes.
+     */
+    public static CodecStats compress(Path in, Path out) throws IOException {
+        if (Files.size(in) > BlockCompressor.DEFAULT_BLOCK_SIZE) {
+            return new BlockCompressor().compress(in, out);
         }
+        return new MappedCodec().compress(in, out);
     }
 
 
     /**
      * Compresses the given input stream, writing to the given output stream.
      * <p>
-     * Writes all required parts of the output file format: the byte count header,
-     * the encoded tree, and then the encoded data.
+     * Writes all required parts of the output file format: the magic and version, the
+     * byte count header, the code lengths, and then the encoded data. Input that encoding
+     * would not make noticeably smaller is stored in a block container instead, if that is
+     * smaller; see {@link #isCanonical}.
+     * </p>
+     * <p>
+     * Up to {@link BlockCompressor#DEFAULT_BLOCK_SIZE} bytes of input are held in memory.
+     * A longer stream is passed on to a {@link BlockCompressor}, which gives each block a
+     * code of its own, so there is no limit on the length of the stream.
      * </p>
      *
      * @param in the InputStrem.
      * @param out the OutputStream.
+     * @return the job's stats, if metrics are enabled; see {@link CodecMetrics}.
      * @throws IOException If there are any read/write error.
      */
-    public static void compress(InputStream in, OutputStream out) throws IOException {
+    public static CodecStats compress(InputStream in, OutputStream out) throws IOException {
+        CodecStats stats = CodecStats.begin(true);
 
-        // read the file, storing it in a byte array buffer
+        // read the input, storing it in a byte array buffer until it is more than a block
+        long start = stats.time();
         ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-        while (true) {
-            int b = in.read();
-            if (b == -1) {
-                break; // end of input stream
-            } else {
-                buffer.write(b);
+        byte[] chunk = new byte[FILE_CHUNK_SIZE];
+        int n;
+        while ((n = in.read(chunk)) != -1) {
+            buffer.write(chunk, 0, n);
+            if (buffer.size() > BlockCompressor.DEFAULT_BLOCK_SIZE) {
+                stats.stop(CodecStats.Phase.READ, start);
+                InputStream all = new SequenceInputStream(new ByteArrayInputStream(buffer.toByteArray()), in);
+                new BlockCompressor().compress(all, out, stats);
+                return stats.end();
             }
         }
-
-        // build a tree from the bytes
         byte[] bytes = buffer.toByteArray();
-        Huffman tree = new Huffman(bytes);
-        // debug check:
-        // System.out.println(tree);
+        stats.stop(CodecStats.Phase.READ, start);
 
-        // write output, starting with byte count as a 4-byte int
-        for (int i = 3; i >= 0; i--) {
-            out.write(bytes.length >> (i * 8));
+        // build a tree from the bytes
+        start = stats.time();
+        Histogram histogram = Histogram.of(bytes);
+        stats.stop(CodecStats.Phase.HISTOGRAM, start);
+        start = stats.time();
+        CanonicalCode code = new Huffman(histogram).getCanonicalCode();
+        long bits = code.getEncodedBits(histogram.getCounts());
+        stats.stop(CodecStats.Phase.TREE, start);
+        if (!isCanonical(canonicalSize(bytes.length, bits), bytes.length)) {
+            // store what does not compress
+            new BlockCompressor().compress(new ByteArrayInputStream(bytes), out, stats);
+            return stats.end();
         }
-        BitWriter bitStream = new BitWriter(out);
-        tree.write(bitStream);
-        tree.encode(bytes, bitStream);
+        stats.addBlock();
+        stats.addCoded(histogram.getCounts(), code);
+        stats.addBytesIn(bytes.length);
+        stats.addBytesOut(canonicalSize(bytes.length, bits));
+        start = stats.time();
+        if (bytes.length >= CodeTable.PAIR_MIN_BYTES) {
+            code.getCodeTable().enablePairs();
+        }
+        BitWriter bitStream = writeHeader(code, bytes.length, out);
+        code.encode(bytes, 0, bytes.length, bitStream);
+        stats.stop(CodecStats.Phase.ENCODE, start);
+        start = stats.time();
         bitStream.flush();
+        stats.stop(CodecStats.Phase.WRITE, start);
+        return stats.end();
+    }
+
+
+    /**
+     * Writes everything that comes before the encoded data: the magic and version, the
+     * byte count and the code lengths.
+     *
+     * @param code the code the data will be encoded with.
+     * @param length the number of bytes that will be encoded.
+     * @param out the OutputStream.
+     * @return a BitWriter positioned for the encoded data.
+     * @throws IOException If there is a problem writing to stream.
+     */
+    private static BitWriter writeHeader(CanonicalCode code, long length, OutputStream out)
+            throws IOException {
+        out.write(MAGIC);
+        out.write(VERSION_CANONICAL);
+        writeLength(out, length);
+        BitWriter bitStream = new BitWriter(out);
+        code.write(bitStream);
+        return bitStream;
+    }
+
+
+    /**
+     * Returns the size of the canonical format's output.
+     *
+     * @param length the number of bytes encoded.
+     * @param bits the bits of the code lengths and encoded data.
+     * @return the number of bytes written.
+     */
+    static long canonicalSize(long length, long bits) {
+        return MAGIC.length + 1 + lengthSize(length) + (bits + 7) / 8;
+    }
+
+
+    /**
+     * Returns whether data no longer than one block is written in the canonical format.
+     * It is, unless encoding saves too little to be worth it and a block container that
+     * stores the data as it is really is smaller; a container has more to it than a
+     * canonical header, so very short data is always written in the canonical format.
+     *
+     * @param size the size of the canonical output, from {@link #canonicalSize}.
+     * @param length the number of bytes of data.
+     * @return true to write the canonical format, false to write a block container.
+     */
+    static boolean isCanonical(long size, long length) {
+        return BlockCompressor.isWorthEncoding(size, length)
+                || size <= BlockCompressor.storedSize(length, BlockCompressor.DEFAULT_BLOCK_SIZE);
+    }
+
+
+    /**
+     * Returns the number of bytes {@link #writeLength(OutputStream, long)} writes for a
+     * length.
+     *
+     * @param length the length.
+     * @return the size of its varint.
+     */
+    static int lengthSize(long length) {
+        int size = 1;
+        while ((length >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+
+    /**
+     * Writes a byte count as an unsigned varint: 7 bits per byte, low bits first, with
+     * the high bit set on every byte but the last.
+     *
+     * @param out the OutputStream.
+     * @param length the byte count, not negative.
+     * @throws IOException If there is a problem writing to stream.
+     */
+    static void writeLength(OutputStream out, long length) throws IOException {
+        while ((length & ~0x7fL) != 0) {
+            out.write((int) (length & 0x7f) | 0x80);
+            length >>>= 7;
+        }
+        out.write((int) length);
+    }
+
+
+    /**
+     * Reads a byte count as written by {@link #writeLength(OutputStream, long)}.
+     *
+     * @param in the InputStream.
+     * @return the byte count.
+     * @throws IOException if the varint is longer than 64 bits or cannot be read.
+     */
+    static long readLength(InputStream in) throws IOException {
+        long length = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte(in) & 0xff;
+            length |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return length;
+            }
+        }
+        throw new IOException("Malformed byte count in .huff header");
+    }
+
+
+    /**
+     * Puts a byte count into a buffer as an unsigned varint, as
+     * {@link #writeLength(OutputStream, long)} writes it.
+     *
+     * @param dst the buffer.
+     * @param length the byte count, not negative.
+     */
+    static void putLength(ByteBuffer dst, long length) {
+        while ((length & ~0x7fL) != 0) {
+            dst.put((byte) ((length & 0x7f) | 0x80));
+            length >>>= 7;
+        }
+        dst.put((byte) length);
+    }
+
+
+    /**
+     * Gets a byte count written as an unsigned varint from a buffer.
+     *
+     * @param src the buffer, positioned at the varint.
+     * @return the byte count.
+     * @throws IOException If the buffer ends first, or the varint is malformed.
+     */
+    static long getLength(ByteBuffer src) throws IOException {
+        long length = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!src.hasRemaining()) {
+                throw new EOFException("Unexpected end of .huff data");
+            }
+            int b = src.get() & 0xff;
+            length |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return length;
+            }
+        }
+        throw new IOException("Malformed byte count in .huff header");
     }
 
 
@@ -408,15 +944,7 @@ public class Huffman {
             throw new IllegalArgumentException(filename + " does not end in " + HUFF_EXT);
         }
         String out = filename.substring(0, filename.lastIndexOf(HUFF_EXT));
-        BufferedInputStream filein = new BufferedInputStream(new FileInputStream(filename));
-        BufferedOutputStream fileout = new BufferedOutputStream(new FileOutputStream(out));
-        try {
-            decompress(filein, fileout);
-        } finally {
-            // close streams, even if an IOException flies by
-            filein.close();
-            fileout.close();
-        }
+        decompress(Paths.get(filename), Paths.get(out));
     }
 
     /**
@@ -433,33 +961,165 @@ public class Huffman {
             throw new IllegalArgumentException(filename + " does not end in " + HUFF_EXT);
         }
         String out = newFileName;
-        BufferedInputStream filein = new BufferedInputStream(new FileInputStream(filename));
-        BufferedOutputStream fileout = new BufferedOutputStream(new FileOutputStream(out));
-        try {
-            decompress(filein, fileout);
-        } finally {
-            // close streams, even if an IOException flies by
-            filein.close();
-            fileout.close();
-        }
+        decompress(Paths.get(filename), Paths.get(out));
         return out;
     }
 
 
+    /**
+     * Decompresses the given .huff file into the given output file. Block containers
+     * are decoded in parallel by {@link BlockDecompressor}, and large legacy files by
+     * {@link SpeculativeDecoder}; other files through memory-mapped windows by
+     * {@link MappedCodec}.
+     *
+     * @param in the .huff file.
+     * @param out the file to write; replaced if it exists.
+     * @return the job's stats, if metrics are enabled; see {@link CodecMetrics}.
+     * @throws IOException If cannot read/write the files.
+     */
+    public static CodecStats decompress(Path in, Path out) throws IOException {
+        CodecStats stats = CodecStats.begin(false);
+        decompress(in, out, stats);
+        return stats.end();
+    }
+
+
+    /**
+     * Decompresses the given .huff file into the given output file, as part of a job.
+     *
+     * @param in the .huff file.
+     * @param out the file to write; replaced if it exists.
+     * @param stats the job's stats.
+     * @throws IOException If cannot read/write the files.
+     */
+    static void decompress(Path in, Path out, CodecStats stats) throws IOException {
+        byte[] start = new byte[3];
+        try (InputStream filein = Files.newInputStream(in)) {
+            int n = 0;
+            int read;
+            while (n < start.length && (read = filein.read(start, n, start.length - n)) != -1) {
+                n += read;
+            }
+        }
+        if (start[0] == MAGIC[0] && start[1] == MAGIC[1] && start[2] == VERSION_BLOCKS) {
+            new BlockDecompressor().decompress(in, out, stats);
+            return;
+        }
+        if (start[0] == MAGIC[0] && start[1] == MAGIC[1] && start[2] == VERSION_ADAPTIVE) {
+            // only readable front to back
+            try (InputStream filein = new BufferedInputStream(Files.newInputStream(in));
+                 OutputStream fileout = new BufferedOutputStream(Files.newOutputStream(out))) {
+                decompress(filein, fileout, stats);
+            }
+            stats.addBytesIn(Files.size(in));
+            stats.addBytesOut(Files.size(out));
+            return;
+        }
+        if (start[0] != MAGIC[0] && Files.size(in) >= SPECULATIVE_MIN_BYTES) {
+            // a large legacy file: decode it in parallel
+            long time = stats.time();
+            new SpeculativeDecoder().decompress(in, out);
+            stats.stop(CodecStats.Phase.DECODE, time);
+            stats.addBlock();
+            stats.addBytesIn(Files.size(in));
+            stats.addBytesOut(Files.size(out));
+            return;
+        }
+        new MappedCodec().decompress(in, out, stats);
+    }
+
+
     /**
      * Decompresses the given input stream, writing to the given output stream.
      *
      * @param in the InputStream.
      * @param out the OutputStream.
+     * @return the job's stats, if metrics are enabled; see {@link CodecMetrics}.
+     * @throws IOException If there are any read/write error.
+     */
+    public static CodecStats decompress(InputStream in, OutputStream out) throws IOException {
+        CodecStats stats = CodecStats.begin(false);
+        if (!stats.isEnabled()) {
+            decompress(in, out, stats);
+            return stats.end();
+        }
+        BlockDecompressor.CountingInputStream counted = new BlockDecompressor.CountingInputStream(in);
+        BlockCompressor.CountingOutputStream countedOut = new BlockCompressor.CountingOutputStream(out);
+        decompress(counted, countedOut, stats);
+        stats.addBytesIn(counted.count);
+        stats.addBytesOut(countedOut.count);
+        return stats.end();
+    }
+
+
+    /**
+     * Decompresses the given input stream, writing to the given output stream, as part of
+     * a job. Bytes in and out are left for the caller to count.
+     *
+     * @param in the InputStream.
+     * @param out the OutputStream.
+     * @param stats the job's stats.
      * @throws IOException If there are any read/write error.
      */
-    public static void decompress(InputStream in, OutputStream out) throws IOException {
-        // wrap input stream in a BitReader
+    static void decompress(InputStream in, OutputStream out, CodecStats stats) throws IOException {
+        long time = stats.time();
+        byte first = readByte(in);
+        if (first == MAGIC[0]) {
+            if (readByte(in) != MAGIC[1]) {
+                throw new IOException("Not a .huff file");
+            }
+            int version = readByte(in);
+            if (version == VERSION_BLOCKS) {
+                BlockDecompressor.decompress(in, out, stats);
+                return;
+            } else if (version == VERSION_ADAPTIVE) {
+                // the code changes with every byte, so it is all decoding
+                time = stats.time();
+                AdaptiveHuffman.decompress(in, out);
+                stats.stop(CodecStats.Phase.DECODE, time);
+                stats.addBlock();
+                return;
+            } else if (version != VERSION_CANONICAL) {
+                throw new IOException("Unsupported .huff version " + version);
+            }
+            long length = readLength(in);
+            // wrap the rest of the input stream in a BitReader
+            BitReader br = new BitReader(in);
+            CanonicalCode code = CanonicalCode.read(br);
+            stats.stop(CodecStats.Phase.TREE, time);
+            stats.addBlock();
+            time = stats.time();
+            code.newDecoder().decode(length, br, out);
+            stats.stop(CodecStats.Phase.DECODE, time);
+            return;
+        }
+        // a legacy file: the first four bytes are the byte count
+        byte[] header = {first, readByte(in), readByte(in), readByte(in)};
+        // wrap the rest of the input stream in a BitReader
         BitReader br = new BitReader(in);
-        // read in byte count from BitReader
         // build a tree = new Huffman(BitReader)
-        Huffman h = new Huffman(br);
+        Huffman h = new Huffman(header, br);
+        stats.stop(CodecStats.Phase.TREE, time);
+        stats.addBlock();
+        time = stats.time();
         h.decode(h.head, br, out);
+        stats.stop(CodecStats.Phase.DECODE, time);
+    }
+
+
+    /**
+     * Reads a single header byte.
+     *
+     * @param in the InputStream.
+     * @return the byte.
+     * @throws IOException If there are any read errors, or the stream has ended.
+     */
+    static byte readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            throw new EOFException("Unexpected end of .huff data");
+        }
+        return (byte) b;
     }
 
     public static String getFileAsBinary(File file) {
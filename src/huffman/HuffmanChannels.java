@@ -0,0 +1,180 @@
+package huffman;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Channels that compress what is written to them, or decompress what is read from them,
+ * in the manner of {@link java.nio.channels.Channels}.
+ *
+ * <p>They work on {@link HuffmanEncoder} and {@link HuffmanDecoder}, passing data to and
+ * from the underlying channel through a direct buffer of {@link #BUFFER_SIZE} bytes. The
+ * underlying channels must be in blocking mode.</p>
+ *
+ * @author Jacob Gordon
+ */
+public class HuffmanChannels {
+
+    /**
+     * Size of the buffer between a channel and the channel under it.
+     */
+    public static final int BUFFER_SIZE = 1 << 16;
+
+    private HuffmanChannels() {
+        // static methods only
+    }
+
+
+    /**
+     * Returns a channel that compresses the bytes written to it with the default block
+     * size into the given channel. Closing it writes the end of the data and closes the
+     * given channel.
+     *
+     * @param target the channel to write compressed data to.
+     * @return the compressing channel.
+     */
+    public static WritableByteChannel newEncodingChannel(WritableByteChannel target) {
+        return newEncodingChannel(target, BlockCompressor.DEFAULT_BLOCK_SIZE);
+    }
+
+
+    /**
+     * Returns a channel that compresses the bytes written to it into the given channel.
+     * Closing it writes the end of the data and closes the given channel.
+     *
+     * @param target the channel to write compressed data to.
+     * @param blockSize the number of bytes in each block.
+     * @return the compressing channel.
+     */
+    public static WritableByteChannel newEncodingChannel(WritableByteChannel target, int blockSize) {
+        return new EncodingChannel(target, new HuffmanEncoder(blockSize));
+    }
+
+
+    /**
+     * Returns a channel that reads compressed data from the given channel and returns the
+     * decompressed bytes.
+     *
+     * @param source the channel to read compressed data from.
+     * @return the decompressing channel.
+     */
+    public static ReadableByteChannel newDecodingChannel(ReadableByteChannel source) {
+        return new DecodingChannel(source);
+    }
+
+
+    /**
+     * Compresses into another channel.
+     */
+    private static class EncodingChannel implements WritableByteChannel {
+        private final WritableByteChannel target;
+        private final HuffmanEncoder encoder;
+        private final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE); // in write mode
+        private boolean open = true;
+
+        EncodingChannel(WritableByteChannel target, HuffmanEncoder encoder) {
+            this.target = target;
+            this.encoder = encoder;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            int start = src.remaining();
+            while (encoder.encode(src, out, false).isOverflow()) {
+                drain();
+            }
+            return start - src.remaining();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!open) {
+                return;
+            }
+            open = false;
+            try {
+                ByteBuffer empty = ByteBuffer.allocate(0);
+                while (encoder.encode(empty, out, true).isOverflow()) {
+                    drain();
+                }
+                while (encoder.flush(out).isOverflow()) {
+                    drain();
+                }
+                drain();
+            } finally {
+                target.close();
+            }
+        }
+
+        private void drain() throws IOException {
+            out.flip();
+            while (out.hasRemaining()) {
+                target.write(out);
+            }
+            out.clear();
+        }
+    }
+
+
+    /**
+     * Decompresses from another channel.
+     */
+    private static class DecodingChannel implements ReadableByteChannel {
+        private final ReadableByteChannel source;
+        private final HuffmanDecoder decoder = new HuffmanDecoder();
+        private final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE); // in read mode
+        private boolean open = true;
+
+        DecodingChannel(ReadableByteChannel source) {
+            this.source = source;
+            this.in.flip();
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            int start = dst.position();
+            while (true) {
+                decoder.decode(in, dst);
+                if (dst.position() > start || !dst.hasRemaining()) {
+                    return dst.position() - start;
+                } else if (decoder.isFinished()) {
+                    return -1;
+                }
+                in.compact();
+                int n = source.read(in);
+                in.flip();
+                if (n == -1) {
+                    throw new EOFException("Unexpected end of .huff data");
+                } else if (n == 0) {
+                    return 0;
+                }
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            open = false;
+            source.close();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package huffman;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decompresses a block container from one buffer into another, in the manner of
+ * {@link java.nio.charset.CharsetDecoder}: each call to
+ * {@link #decode(ByteBuffer, ByteBuffer)} goes as far as its buffers allow and says why it
+ * stopped, and the next call picks up where it left off, even in the middle of a block.
+ *
+ * <p>Reads the output of {@link HuffmanEncoder}, {@link HuffmanOutputStream} and
+ * {@link BlockCompressor}; a block index at the end is read past and ignored. Each block's
+ * record is gathered in a direct buffer until it is complete, decoded in place into a
+ * second direct buffer of the block size, and handed out from there as the output buffers
+ * passed in have room. {@link #isFinished()} says when the end of the container has been
+ * reached and all of its data handed out.</p>
+ *
+ * @author Jacob Gordon
+ */
+public class HuffmanDecoder {
+
+    private static final int HEADER = 0;
+    private static final int RECORD = 1;
+    private static final int INDEX = 2;
+    private static final int DONE = 3;
+
+    /**
+     * What the bytes in record are the start of: one of the constants above.
+     */
+    private int stage = HEADER;
+
+    /**
+     * Input gathered for the header, record or index being read, in write mode.
+     */
+    private ByteBuffer record = ByteBuffer.allocateDirect(64);
+
+    /**
+     * Decoded data not yet handed out, in read mode.
+     */
+    private ByteBuffer block = ByteBuffer.allocateDirect(0);
+
+    /**
+     * Flags from the container header.
+     */
+    private int flags;
+
+    /**
+     * The block size from the container header.
+     */
+    private int blockSize;
+
+    /**
+     * Bytes of the index left to read past.
+     */
+    private long skip;
+
+
+    /**
+     * Decodes as much of the input as possible into the output buffer.
+     *
+     * @param src the input, from its position to its limit.
+     * @param dst the output buffer, from its position to its limit.
+     * @return {@link CodecResult#UNDERFLOW} once all of src is taken and all the data
+     *     decoded so far handed out, or {@link CodecResult#OVERFLOW} if dst fills up first.
+     * @throws IOException If the data is invalid.
+     */
+    public CodecResult decode(ByteBuffer src, ByteBuffer dst) throws IOException {
+        while (true) {
+            if (block.hasRemaining()) {
+                int n = Math.min(block.remaining(), dst.remaining());
+                ByteBuffer out = block.duplicate();
+                out.limit(out.position() + n);
+                dst.put(out);
+                block.position(block.position() + n);
+                if (block.hasRemaining()) {
+                    return CodecResult.OVERFLOW;
+                }
+            }
+            if (stage == DONE || !step(src)) {
+                return CodecResult.UNDERFLOW;
+            }
+        }
+    }
+
+
+    /**
+     * Returns whether the whole container has been decoded and handed out.
+     *
+     * @return true once there is nothing more to decode.
+     */
+    public boolean isFinished() {
+        return stage == DONE && !block.hasRemaining();
+    }
+
+
+    /**
+     * Drops any input and output not yet handed out, ready to decode a new stream.
+     */
+    public void reset() {
+        stage = HEADER;
+        record.clear();
+        block.clear();
+        block.limit(0);
+    }
+
+
+    /**
+     * Reads the rest of the header, record or index being read.
+     *
+     * @param src the input.
+     * @return true if it was complete and has been read, or false if src ran out first.
+     * @throws IOException If the data is invalid.
+     */
+    private boolean step(ByteBuffer src) throws IOException {
+        if (stage == HEADER) {
+            int end = fill(src, 4) ? lengthEnd(src, 4) : -1;
+            if (end < 0) {
+                return false;
+            }
+            if (record.get(0) != Huffman.MAGIC[0] || record.get(1) != Huffman.MAGIC[1]
+                    || record.get(2) != Huffman.VERSION_BLOCKS) {
+                throw new IOException("Not a block container .huff stream");
+            }
+            flags = record.get(3) & 0xff;
+            long size = Huffman.getLength(view(4, end));
+            if (size < 1 || size > BlockCompressor.MAX_BLOCK_SIZE) {
+                throw new IOException("Invalid block size " + size);
+            }
+            blockSize = (int) size;
+            if (block.capacity() < blockSize) {
+                block = ByteBuffer.allocateDirect(blockSize);
+                block.limit(0);
+            }
+            stage = RECORD;
+        } else if (stage == RECORD) {
+            if (!fill(src, 1)) {
+                return false;
+            }
+            int type = record.get(0);
+            if (type == BlockCompressor.BLOCK_END) {
+                stage = (flags & BlockCompressor.FLAG_INDEX) != 0 ? INDEX : DONE;
+                skip = -1;
+            } else {
+                int lengthEnd = lengthEnd(src, 1);
+                int sizeEnd = lengthEnd < 0 ? -1 : lengthEnd(src, lengthEnd);
+                if (sizeEnd < 0) {
+                    return false;
+                }
+                long length = Huffman.getLength(view(1, lengthEnd));
+                long compressed = Huffman.getLength(view(lengthEnd, sizeEnd));
+                if (length > blockSize || compressed > 4L * blockSize + 1024) {
+                    throw new IOException("Invalid block sizes " + length + ", " + compressed);
+                }
+                if (!fill(src, sizeEnd + (int) compressed)) {
+                    return false;
+                }
+                block.clear();
+                block.limit((int) length);
+                BlockDecompressor.decodeBlock(type, view(sizeEnd, sizeEnd + (int) compressed), block);
+                block.flip();
+            }
+        } else {
+            if (skip < 0) {
+                // the number of entries, then the entries and the index offset
+                if (!fill(src, 4)) {
+                    return false;
+                }
+                int blocks = record.getInt(0);
+                if (blocks < 0) {
+                    throw new IOException("Invalid block index");
+                }
+                skip = (long) blocks * BlockCompressor.INDEX_ENTRY_SIZE + 8;
+            }
+            int n = (int) Math.min(skip, src.remaining());
+            src.position(src.position() + n);
+            skip -= n;
+            if (skip > 0) {
+                return false;
+            }
+            stage = DONE;
+        }
+        record.clear();
+        return true;
+    }
+
+
+    /**
+     * Moves bytes from the input into record until it holds the given number.
+     *
+     * @param src the input.
+     * @param n the number of bytes needed.
+     * @return true if record now holds them, or false if src ran out first.
+     */
+    private boolean fill(ByteBuffer src, int n) {
+        if (record.capacity() < n) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(n, 2 * record.capacity()));
+            record.flip();
+            larger.put(record);
+            record = larger;
+        }
+        int take = Math.min(n - record.position(), src.remaining());
+        if (take > 0) {
+            ByteBuffer taken = src.duplicate();
+            taken.limit(taken.position() + take);
+            record.put(taken);
+            src.position(src.position() + take);
+        }
+        return record.position() >= n;
+    }
+
+
+    /**
+     * Moves bytes from the input into record until it holds the whole varint that starts at
+     * the given index.
+     *
+     * @param src the input.
+     * @param start the index in record where the varint starts.
+     * @return the index after the varint, or -1 if src ran out first.
+     * @throws IOException If the varint is malformed.
+     */
+    private int lengthEnd(ByteBuffer src, int start) throws IOException {
+        for (int i = start; i < start + 10; i++) {
+            if (!fill(src, i + 1)) {
+                return -1;
+            }
+            if ((record.get(i) & 0x80) == 0) {
+                return i + 1;
+            }
+        }
+        throw new IOException("Malformed byte count in .huff data");
+    }
+
+
+    /**
+     * Returns a view of part of record.
+     *
+     * @param from the index of the first byte.
+     * @param to the index after the last byte.
+     * @return the bytes, from the view's position to its limit.
+     */
+    private ByteBuffer view(int from, int to) {
+        ByteBuffer view = record.duplicate();
+        view.limit(to);
+        view.position(from);
+        return view;
+    }
+}
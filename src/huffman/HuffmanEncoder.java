@@ -0,0 +1,225 @@
+package huffman;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses bytes from one buffer into another, in the manner of
+ * {@link java.nio.charset.CharsetEncoder}: each call to
+ * {@link #encode(ByteBuffer, ByteBuffer, boolean)} goes as far as its buffers allow and
+ * says why it stopped, and the next call picks up where it left off, even in the middle of
+ * a block.
+ *
+ * <p>The output is a block container without an index, like that of
+ * {@link HuffmanOutputStream}, with every block in a single stream so that its encoded size
+ * is known before it is encoded. Input is gathered into a direct buffer of the block size,
+ * then counted and encoded straight from there. The codes go through the
+ * {@link BitWriter}'s 64KB heap array of whole bytes on their way into a second direct
+ * buffer, while stored blocks are copied from one direct buffer to the other. The output is
+ * handed out from the second buffer as the output buffers passed in have room. To use the
+ * encoder, call encode with all of the input, the last time with endOfInput set, and then
+ * {@link #flush(ByteBuffer)} until it returns {@link CodecResult#UNDERFLOW}.
+ * {@link #reset()} makes it ready for a new stream.</p>
+ *
+ * @author Jacob Gordon
+ */
+public class HuffmanEncoder {
+
+    /**
+     * Most bytes of output beyond a block's data: the container header, a block's type and
+     * sizes, and the end of the blocks.
+     */
+    private static final int RECORD_OVERHEAD = 32;
+
+    /**
+     * Data not yet encoded, in write mode.
+     */
+    private final ByteBuffer block;
+
+    /**
+     * Output not yet handed out, in read mode.
+     */
+    private final ByteBuffer pending;
+
+    /**
+     * Writes bits into pending.
+     */
+    private final BitWriter bits;
+
+    /**
+     * Whether the container header has been written.
+     */
+    private boolean started;
+
+    /**
+     * Whether the end of the blocks has been written.
+     */
+    private boolean ended;
+
+
+    /**
+     * Creates an encoder with the default block size.
+     */
+    public HuffmanEncoder() {
+        this(BlockCompressor.DEFAULT_BLOCK_SIZE);
+    }
+
+
+    /**
+     * Creates an encoder.
+     *
+     * @param blockSize the number of bytes in each block, up to {@link BlockCompressor#MAX_BLOCK_SIZE}.
+     */
+    public HuffmanEncoder(int blockSize) {
+        if (blockSize < 1 || blockSize > BlockCompressor.MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size must be from 1 to " + BlockCompressor.MAX_BLOCK_SIZE);
+        }
+        this.block = ByteBuffer.allocateDirect(blockSize);
+        this.pending = ByteBuffer.allocateDirect(blockSize + RECORD_OVERHEAD);
+        this.pending.flip();
+        this.bits = new BitWriter(pending);
+    }
+
+
+    /**
+     * Encodes as much of the input as possible into the output buffer. Bytes are taken
+     * from the input until it is used up, and encoded output is put into the output
+     * buffer until it is full; a block is encoded once it fills up, or once the input
+     * ends if endOfInput is set.
+     *
+     * @param src the input, from its position to its limit.
+     * @param dst the output buffer, from its position to its limit.
+     * @param endOfInput true if there is no more input after src.
+     * @return {@link CodecResult#UNDERFLOW} once all of src is taken and all the output
+     *     there is so far handed out, or {@link CodecResult#OVERFLOW} if dst fills up first.
+     * @throws IOException If the data cannot be encoded.
+     */
+    public CodecResult encode(ByteBuffer src, ByteBuffer dst, boolean endOfInput) throws IOException {
+        if (ended) {
+            throw new IllegalStateException("Encoder already flushed");
+        }
+        while (true) {
+            if (!drain(dst)) {
+                return CodecResult.OVERFLOW;
+            }
+            if (!block.hasRemaining()) {
+                encodeBlock();
+            } else if (src.hasRemaining()) {
+                int n = Math.min(src.remaining(), block.remaining());
+                ByteBuffer taken = src.duplicate();
+                taken.limit(taken.position() + n);
+                block.put(taken);
+                src.position(src.position() + n);
+            } else if (endOfInput && block.position() > 0) {
+                encodeBlock();
+            } else {
+                return CodecResult.UNDERFLOW;
+            }
+        }
+    }
+
+
+    /**
+     * Writes out the end of the blocks, after the last call to encode. Call again with
+     * more room while it returns {@link CodecResult#OVERFLOW}.
+     *
+     * @param dst the output buffer, from its position to its limit.
+     * @return {@link CodecResult#UNDERFLOW} once all of the output is handed out, or
+     *     {@link CodecResult#OVERFLOW} if dst fills up first.
+     * @throws IOException If the data cannot be encoded.
+     */
+    public CodecResult flush(ByteBuffer dst) throws IOException {
+        if (!ended) {
+            if (!drain(dst)) {
+                return CodecResult.OVERFLOW;
+            }
+            if (block.position() > 0) {
+                encodeBlock();
+            }
+            pending.compact();
+            startContainer();
+            pending.put((byte) BlockCompressor.BLOCK_END);
+            pending.flip();
+            ended = true;
+        }
+        return drain(dst) ? CodecResult.UNDERFLOW : CodecResult.OVERFLOW;
+    }
+
+
+    /**
+     * Drops any input and output not yet handed out, ready to encode a new stream.
+     */
+    public void reset() {
+        block.clear();
+        pending.clear();
+        pending.flip();
+        started = false;
+        ended = false;
+    }
+
+
+    /**
+     * Hands out pending output.
+     *
+     * @param dst the output buffer.
+     * @return true if no output is left pending.
+     */
+    private boolean drain(ByteBuffer dst) {
+        if (pending.hasRemaining()) {
+            int n = Math.min(pending.remaining(), dst.remaining());
+            ByteBuffer out = pending.duplicate();
+            out.limit(out.position() + n);
+            dst.put(out);
+            pending.position(pending.position() + n);
+        }
+        return !pending.hasRemaining();
+    }
+
+
+    /**
+     * Writes the container header into pending, unless it already has been.
+     */
+    private void startContainer() {
+        if (!started) {
+            pending.put(Huffman.MAGIC);
+            pending.put((byte) Huffman.VERSION_BLOCKS);
+            pending.put((byte) 0);
+            Huffman.putLength(pending, block.capacity());
+            started = true;
+        }
+    }
+
+
+    /**
+     * Encodes the data in the block into pending, or stores it if that would not save
+     * enough. Pending must be empty.
+     *
+     * @throws IOException If the block cannot be encoded.
+     */
+    private void encodeBlock() throws IOException {
+        block.flip();
+        int length = block.remaining();
+        Histogram histogram = new Histogram();
+        histogram.add(block.duplicate());
+        CanonicalCode code = new Huffman(histogram).getCanonicalCode();
+        long size = (code.getEncodedBits(histogram.getCounts()) + 7) / 8;
+
+        pending.compact();
+        startContainer();
+        if (BlockCompressor.isWorthEncoding(size, length)) {
+            pending.put((byte) BlockCompressor.BLOCK_HUFFMAN);
+            Huffman.putLength(pending, length);
+            Huffman.putLength(pending, size);
+            code.write(bits);
+            code.encode(block, bits);
+            bits.flush();
+        } else {
+            pending.put((byte) BlockCompressor.BLOCK_STORED);
+            Huffman.putLength(pending, length);
+            Huffman.putLength(pending, length);
+            pending.put(block);
+        }
+        pending.flip();
+        block.clear();
+    }
+}
@@ -0,0 +1,193 @@
+package huffman;
+
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream filter that decompresses a block container as it is read, in the way
+ * {@link java.util.zip.GZIPInputStream} does.
+ *
+ * <p>Blocks are read and decoded one at a time, only when the data already decoded has
+ * all been read, so memory use depends only on the block size and a read never waits for
+ * more input than the next block. Reads the output of {@link HuffmanOutputStream} and of
+ * {@link BlockCompressor}; a block index at the end is read past and ignored.</p>
+ *
+ * @author Jacob Gordon
+ */
+public class HuffmanInputStream extends FilterInputStream {
+
+    /**
+     * The compressed input.
+     */
+    private final DataInputStream data;
+
+    /**
+     * Flags from the container header.
+     */
+    private final int flags;
+
+    /**
+     * The block size from the container header.
+     */
+    private final int blockSize;
+
+    /**
+     * The decoded data of the current block.
+     */
+    private final byte[] block;
+
+    /**
+     * Space for the compressed data of a block.
+     */
+    private byte[] payload = new byte[0];
+
+    /**
+     * Index in the block of the next byte to read.
+     */
+    private int position;
+
+    /**
+     * Number of bytes of data in the block.
+     */
+    private int count;
+
+    /**
+     * Whether the end of the blocks has been read.
+     */
+    private boolean eof;
+
+
+    /**
+     * Creates a decompressing stream, reading the container header.
+     *
+     * @param in the InputStream to read compressed data from.
+     * @throws IOException If the header cannot be read, or is not a block container's.
+     */
+    public HuffmanInputStream(InputStream in) throws IOException {
+        super(in);
+        this.data = new DataInputStream(in);
+        if (Huffman.readByte(data) != Huffman.MAGIC[0] || Huffman.readByte(data) != Huffman.MAGIC[1]
+                || Huffman.readByte(data) != Huffman.VERSION_BLOCKS) {
+            throw new IOException("Not a block container .huff stream");
+        }
+        BlockDecompressor.Header header = BlockDecompressor.readHeader(data);
+        this.flags = header.flags;
+        this.blockSize = header.blockSize;
+        this.block = new byte[blockSize];
+    }
+
+
+    @Override
+    public int read() throws IOException {
+        if (position == count && !nextBlock()) {
+            return -1;
+        }
+        return block[position++] & 0xff;
+    }
+
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        } else if (len == 0) {
+            return 0;
+        }
+        if (position == count && !nextBlock()) {
+            return -1;
+        }
+        int n = Math.min(len, count - position);
+        System.arraycopy(block, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && (position < count || nextBlock())) {
+            int step = (int) Math.min(n - skipped, count - position);
+            position += step;
+            skipped += step;
+        }
+        return skipped;
+    }
+
+
+    /**
+     * Returns the number of decoded bytes that can be read without decoding another block.
+     *
+     * @return the bytes left in the current block.
+     */
+    @Override
+    public int available() {
+        return count - position;
+    }
+
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        // not supported
+    }
+
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+
+    /**
+     * Reads and decodes the next block.
+     *
+     * @return false at the end of the blocks.
+     * @throws IOException If there are any read errors, or the data is invalid.
+     */
+    private boolean nextBlock() throws IOException {
+        while (!eof) {
+            int type = Huffman.readByte(data);
+            if (type == BlockCompressor.BLOCK_END) {
+                eof = true;
+                if ((flags & BlockCompressor.FLAG_INDEX) != 0) {
+                    // read past the index and the offset after it
+                    int blocks = data.readInt();
+                    long entries = (long) blocks * BlockCompressor.INDEX_ENTRY_SIZE + 8;
+                    while (entries > 0) {
+                        int skipped = data.skipBytes((int) Math.min(entries, Integer.MAX_VALUE));
+                        if (skipped <= 0) {
+                            Huffman.readByte(data);
+                            skipped = 1;
+                        }
+                        entries -= skipped;
+                    }
+                }
+                break;
+            }
+            long length = Huffman.readLength(data);
+            long compressed = Huffman.readLength(data);
+            if (length > blockSize || compressed > 4L * blockSize + 1024) {
+                throw new IOException("Invalid block sizes " + length + ", " + compressed);
+            }
+            if (payload.length < compressed) {
+                payload = new byte[(int) compressed];
+            }
+            data.readFully(payload, 0, (int) compressed);
+            BlockDecompressor.decodeBlock(type, payload, 0, (int) compressed, block, (int) length);
+            position = 0;
+            count = (int) length;
+            if (count > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
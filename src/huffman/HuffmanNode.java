@@ -20,7 +20,7 @@ package huffman;
 public class HuffmanNode<E> implements Comparable<HuffmanNode<E>> {
 
     private E data;
-    private int count;
+    private long count;
     private HuffmanNode<E> left;
     private HuffmanNode<E> right;
 
@@ -34,7 +34,7 @@ public class HuffmanNode<E> implements Comparable<HuffmanNode<E>> {
      * @param left the left child.
      * @param right the right child.
      */
-    public HuffmanNode(E data, int count, HuffmanNode<E> left, HuffmanNode<E> right) {
+    public HuffmanNode(E data, long count, HuffmanNode<E> left, HuffmanNode<E> right) {
         this.data = data;
         this.count = count;
         this.left = left;
@@ -49,7 +49,7 @@ public class HuffmanNode<E> implements Comparable<HuffmanNode<E>> {
      * @param data the data.
      * @param count the count.
      */
-    public HuffmanNode(E data, int count) {
+    public HuffmanNode(E data, long count) {
         this(data, count, null, null);
     }
 
@@ -81,7 +81,7 @@ public class HuffmanNode<E> implements Comparable<HuffmanNode<E>> {
     /** Returns the count stored in this node.
      * @return the count.
      */
-    public int getCount() {
+    public long getCount() {
         return count;
     }
 
@@ -89,7 +89,7 @@ public class HuffmanNode<E> implements Comparable<HuffmanNode<E>> {
     /** Updates the count stored in this node.
      * @param count the new count.
      */
-    public void setCount(int count) {
+    public void setCount(long count) {
         this.count = count;
     }
 
@@ -161,7 +161,7 @@ public class HuffmanNode<E> implements Comparable<HuffmanNode<E>> {
     @Override
     public int compareTo(HuffmanNode<E> other) {
         // smaller counts before larger
-        return this.count - other.count;
+        return Long.compare(this.count, other.count);
     }
 
 
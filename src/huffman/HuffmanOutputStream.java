@@ -0,0 +1,154 @@
+package huffman;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream filter that compresses the data written to it, in the way
+ * {@link java.util.zip.GZIPOutputStream} does.
+ *
+ * <p>Data is gathered into blocks and each full block is encoded with its own code, so
+ * memory use depends only on the block size. The output is a block container, as written
+ * by {@link BlockCompressor} but without the block index, since the blocks are written out
+ * as they are finished; it can be read back with a {@link HuffmanInputStream} or any of the
+ * decompress methods of {@link Huffman}. {@link #flush()} encodes whatever has been written
+ * since the last block as a shorter block of its own, so the receiver can decode everything
+ * written so far.</p>
+ *
+ * @author Jacob Gordon
+ */
+public class HuffmanOutputStream extends FilterOutputStream {
+
+    /**
+     * Data not yet encoded.
+     */
+    private final byte[] block;
+
+    /**
+     * Number of bytes of data in the block.
+     */
+    private int count;
+
+    /**
+     * Whether the end of the blocks has been written.
+     */
+    private boolean finished;
+
+
+    /**
+     * Creates a compressing stream with the default block size.
+     *
+     * @param out the OutputStream to write compressed data to.
+     * @throws IOException If the header cannot be written.
+     */
+    public HuffmanOutputStream(OutputStream out) throws IOException {
+        this(out, BlockCompressor.DEFAULT_BLOCK_SIZE);
+    }
+
+
+    /**
+     * Creates a compressing stream.
+     *
+     * @param out the OutputStream to write compressed data to.
+     * @param blockSize the number of bytes in each block, up to {@link BlockCompressor#MAX_BLOCK_SIZE}.
+     * @throws IOException If the header cannot be written.
+     */
+    public HuffmanOutputStream(OutputStream out, int blockSize) throws IOException {
+        super(out);
+        if (blockSize < 1 || blockSize > BlockCompressor.MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size must be from 1 to " + BlockCompressor.MAX_BLOCK_SIZE);
+        }
+        this.block = new byte[blockSize];
+        BlockCompressor.writeHeader(out, 0, blockSize);
+    }
+
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        block[count++] = (byte) b;
+        if (count == block.length) {
+            writeBlock();
+        }
+    }
+
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        while (len > 0) {
+            int n = Math.min(len, block.length - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == block.length) {
+                writeBlock();
+            }
+        }
+    }
+
+
+    /**
+     * Encodes the data written so far, and flushes the underlying stream.
+     *
+     * @throws IOException If there are any write errors.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (!finished) {
+            writeBlock();
+        }
+        out.flush();
+    }
+
+
+    /**
+     * Encodes the data written so far and writes the end of the blocks, without closing
+     * the underlying stream. Nothing more can be written afterwards.
+     *
+     * @throws IOException If there are any write errors.
+     */
+    public void finish() throws IOException {
+        if (!finished) {
+            writeBlock();
+            out.write(BlockCompressor.BLOCK_END);
+            finished = true;
+        }
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+
+    /**
+     * Encodes and writes out the data in the block, if there is any.
+     *
+     * @throws IOException If there are any write errors.
+     */
+    private void writeBlock() throws IOException {
+        if (count > 0) {
+            BlockCompressor.writeRecord(BlockCompressor.encodeBlock(block, count, CanonicalCode.MAX_CODE_LENGTH,
+                    true, CodecStats.NONE), out);
+            count = 0;
+        }
+    }
+
+
+    private void ensureOpen() throws IOException {
+        if (finished) {
+            throw new IOException("Stream finished");
+        }
+    }
+}
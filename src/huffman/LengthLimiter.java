@@ -0,0 +1,197 @@
+package huffman;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Finds the best code lengths for some byte counts when no code may be longer than a
+ * given maximum, using the package-merge algorithm.
+ *
+ * <p>A Huffman tree gives the shortest possible encoding, but its codes can be as long as
+ * the input is skewed: past {@link CanonicalCode#MAX_CODE_LENGTH} bits they no longer fit in
+ * an int, and past {@link TableDecoder#PRIMARY_BITS} bits every code needs a second table
+ * lookup. Package-merge gives the shortest encoding among codes that respect the limit.
+ * Starting from the byte values sorted by count, it repeatedly pairs up adjacent items into
+ * packages and merges the packages back in with the byte values, once per allowed bit of
+ * length; each byte value's code length is then the number of times it is used among the
+ * 2n - 2 cheapest items of the final list.</p>
+ *
+ * <p>{@link #report(long[], int)} compares the limited code with an unlimited one, to show
+ * what a limit costs in compression.</p>
+ *
+ * <p>A limit below {@link CanonicalCode#MAX_CODE_LENGTH} is chosen only through
+ * {@link Huffman#getCanonicalCode(int)} and the {@link BlockCompressor} constructors that
+ * take a maxCodeLength. {@link Huffman#compress(java.nio.file.Path, java.nio.file.Path)},
+ * the streams and the other default entry points keep the full
+ * {@link CanonicalCode#MAX_CODE_LENGTH}, and so only limit trees too deep to store.</p>
+ *
+ * @author Jacob Gordon
+ */
+public class LengthLimiter {
+
+    private LengthLimiter() {
+        // static methods only
+    }
+
+
+    /**
+     * Returns the code lengths that encode the given counts in as few bits as possible
+     * with no code longer than the given maximum.
+     *
+     * @param counts the number of times each byte value occurs, indexed by the byte's
+     *     unsigned value. Values with a count of 0 get no code.
+     * @param maxLength the longest code allowed, from 1 to
+     *     {@link CanonicalCode#MAX_CODE_LENGTH}; must leave room for a code for every value
+     *     that occurs.
+     * @return the length of each byte value's code, or 0 for values that do not occur.
+     */
+    public static byte[] limit(long[] counts, int maxLength) {
+        if (counts.length != 256) {
+            throw new IllegalArgumentException("Expected 256 counts, got " + counts.length);
+        }
+        if (maxLength < 1 || maxLength > CanonicalCode.MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("Maximum code length must be from 1 to "
+                    + CanonicalCode.MAX_CODE_LENGTH);
+        }
+        Integer[] sorted = new Integer[256];
+        int n = 0;
+        for (int s = 0; s < 256; s++) {
+            if (counts[s] < 0) {
+                throw new IllegalArgumentException("Negative count for byte " + s);
+            } else if (counts[s] > 0) {
+                sorted[n++] = s;
+            }
+        }
+        byte[] lengths = new byte[256];
+        if (n == 0) {
+            return lengths;
+        } else if (n == 1) {
+            lengths[sorted[0]] = 1;
+            return lengths;
+        } else if (n > 1L << maxLength) {
+            throw new IllegalArgumentException(n + " byte values cannot all have codes of at most "
+                    + maxLength + " bits");
+        }
+        Arrays.sort(sorted, 0, n, Comparator.comparingLong((Integer s) -> counts[s]));
+
+        // each list holds items cheapest first: a byte value (>= 0), or a package (-1)
+        long[] weights = new long[2 * n];
+        int size = 0;
+        int[][] levels = new int[maxLength][];
+        for (int level = 0; level < maxLength; level++) {
+            // merge the byte values with packages made from pairs of the previous list
+            long[] nextWeights = new long[2 * n];
+            int[] nextItems = new int[2 * n];
+            int next = 0;
+            int leaf = 0;
+            int pair = 0;
+            int packages = size / 2;
+            while (leaf < n || pair < packages) {
+                long packageWeight = pair < packages ? weights[2 * pair] + weights[2 * pair + 1] : Long.MAX_VALUE;
+                if (leaf < n && counts[sorted[leaf]] <= packageWeight) {
+                    nextWeights[next] = counts[sorted[leaf]];
+                    nextItems[next++] = sorted[leaf++];
+                } else {
+                    nextWeights[next] = packageWeight;
+                    nextItems[next++] = -1;
+                    pair++;
+                }
+            }
+            weights = nextWeights;
+            size = next;
+            levels[level] = Arrays.copyOf(nextItems, size);
+        }
+
+        // take the 2n - 2 cheapest items; every package taken means taking the two items
+        // it was made from one level down
+        int taken = 2 * n - 2;
+        for (int level = maxLength - 1; level >= 0; level--) {
+            int packagesTaken = 0;
+            for (int i = 0; i < taken; i++) {
+                if (levels[level][i] >= 0) {
+                    lengths[levels[level][i]]++;
+                } else {
+                    packagesTaken++;
+                }
+            }
+            taken = 2 * packagesTaken;
+        }
+        return lengths;
+    }
+
+
+    /**
+     * Compares the code lengths {@link #limit(long[], int)} gives for the given counts with
+     * those of an unlimited Huffman tree.
+     *
+     * @param counts the number of times each byte value occurs.
+     * @param maxLength the longest code allowed.
+     * @return the sizes of both encodings.
+     */
+    public static Report report(long[] counts, int maxLength) {
+        byte[] limited = limit(counts, maxLength);
+        long limitedBits = 0;
+        for (int s = 0; s < 256; s++) {
+            limitedBits += counts[s] * limited[s];
+        }
+        return new Report(maxLength, new Huffman(counts).getEncodedBits(), limitedBits);
+    }
+
+
+    /**
+     * What limiting code lengths costs for some data.
+     */
+    public static class Report {
+        private final int maxLength;
+        private final long optimalBits;
+        private final long limitedBits;
+
+        Report(int maxLength, long optimalBits, long limitedBits) {
+            this.maxLength = maxLength;
+            this.optimalBits = optimalBits;
+            this.limitedBits = limitedBits;
+        }
+
+        /**
+         * Returns the longest code allowed.
+         *
+         * @return the length limit in bits.
+         */
+        public int getMaxLength() {
+            return maxLength;
+        }
+
+        /**
+         * Returns the size of the data encoded with an unlimited Huffman tree.
+         *
+         * @return the number of bits.
+         */
+        public long getOptimalBits() {
+            return optimalBits;
+        }
+
+        /**
+         * Returns the size of the data encoded with the length-limited code.
+         *
+         * @return the number of bits.
+         */
+        public long getLimitedBits() {
+            return limitedBits;
+        }
+
+        /**
+         * Returns how much larger the limited encoding is, as a fraction of the unlimited one.
+         *
+         * @return the extra size; 0.01 means 1% larger.
+         */
+        public double getCost() {
+            return optimalBits == 0 ? 0 : (double) (limitedBits - optimalBits) / optimalBits;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("max %d bits: %d -> %d bits (+%.3f%%)", maxLength, optimalBits,
+                    limitedBits, getCost() * 100);
+        }
+    }
+}
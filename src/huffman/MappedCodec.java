@@ -0,0 +1,326 @@
+package huffman;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compresses and decompresses files in place in memory-mapped windows, with no input or
+ * output streams in between.
+ *
+ * <p>Files are mapped with {@link FileChannel#map} in windows of up to {@link #WINDOW_SIZE}
+ * bytes, since a single mapped buffer cannot go past 2GB. To compress, byte values are
+ * counted straight from the mapped input, and the exact size of the output is worked out
+ * from those counts and the code lengths, so the output file is mapped at its final size and
+ * the encoded bits go from a small staging array straight into it. To decompress, the input
+ * windows are read through one {@link BitReader} and codes are decoded straight into the
+ * mapped output, whose size is known from the header.</p>
+ *
+ * <p>Files compressed here are in the canonical format, with one code for the whole file,
+ * exactly as {@link Huffman#compress(InputStream, OutputStream)} writes input of up to a
+ * block. The exception is a file that encoding would not make noticeably smaller, which is
+ * handed to {@link BlockCompressor} to be stored if that is smaller; see
+ * {@link Huffman#isCanonical}. {@link Huffman#compress(Path, Path)} only sends files of up
+ * to one block here, and longer ones straight to {@link BlockCompressor}, whose blocks each
+ * get their own code. Block containers are handed to
+ * {@link BlockDecompressor}, and adaptive files, as well as legacy files whose tree is too
+ * deep for a table decoder, go through the streaming code instead.</p>
+ *
+ * @author Jacob Gordon
+ */
+public class MappedCodec {
+
+    /**
+     * Largest number of bytes mapped at once.
+     */
+    public static final int WINDOW_SIZE = 1 << 30;
+
+    /**
+     * Number of bytes mapped at once.
+     */
+    private final int windowSize;
+
+
+    /**
+     * Creates a codec mapping {@link #WINDOW_SIZE} bytes at a time.
+     */
+    public MappedCodec() {
+        this(WINDOW_SIZE);
+    }
+
+
+    /**
+     * Creates a codec.
+     *
+     * @param windowSize the number of bytes mapped at once, up to {@link #WINDOW_SIZE}.
+     */
+    public MappedCodec(int windowSize) {
+        if (windowSize < 1 || windowSize > WINDOW_SIZE) {
+            throw new IllegalArgumentException("Window size must be from 1 to " + WINDOW_SIZE);
+        }
+        this.windowSize = windowSize;
+    }
+
+
+    /**
+     * Compresses the given file into the given output file.
+     *
+     * @param in the file to compress.
+     * @param out the file to write; replaced if it exists.
+     * @return the job's stats, if metrics are enabled.
+     * @throws IOException If cannot read/write files, or the input changes size.
+     */
+    public CodecStats compress(Path in, Path out) throws IOException {
+        CodecStats stats = CodecStats.begin(true);
+        compress(in, out, stats);
+        return stats.end();
+    }
+
+
+    /**
+     * Compresses the given file into the given output file, as part of a job.
+     *
+     * @param in the file to compress.
+     * @param out the file to write; replaced if it exists.
+     * @param stats the job's stats.
+     * @throws IOException If cannot read/write files, or the input changes size.
+     */
+    void compress(Path in, Path out, CodecStats stats) throws IOException {
+        try (FileChannel source = FileChannel.open(in, StandardOpenOption.READ)) {
+            long length = source.size();
+
+            // first pass: count each byte value
+            long start = stats.time();
+            Histogram histogram = new Histogram();
+            for (long offset = 0; offset < length; offset += windowSize) {
+                histogram.add(Histogram.of(map(source, FileChannel.MapMode.READ_ONLY, offset, length)));
+            }
+            stats.stop(CodecStats.Phase.HISTOGRAM, start);
+            start = stats.time();
+            long[] counts = histogram.getCounts();
+            CanonicalCode code = new Huffman(histogram).getCanonicalCode();
+            if (length >= CodeTable.PAIR_MIN_BYTES) {
+                code.getCodeTable().enablePairs();
+            }
+
+            // work out the size of the output
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            header.write(Huffman.MAGIC);
+            header.write(Huffman.VERSION_CANONICAL);
+            Huffman.writeLength(header, length);
+            long size = header.size() + (code.getEncodedBits(counts) + 7) / 8;
+            stats.stop(CodecStats.Phase.TREE, start);
+            if (!Huffman.isCanonical(size, length)) {
+                // store what does not compress, if that is smaller
+                new BlockCompressor().compress(in, out, stats);
+                return;
+            }
+            stats.addBlock();
+            stats.addCoded(counts, code);
+            stats.addBytesIn(length);
+            stats.addBytesOut(size);
+
+            // second pass: encode window by window
+            try (FileChannel target = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                start = stats.time();
+                OutputStream mapped = new WindowOutputStream(target, size);
+                header.writeTo(mapped);
+                BitWriter bitStream = new BitWriter(mapped);
+                code.write(bitStream);
+                for (long offset = 0; offset < length; offset += windowSize) {
+                    if (source.size() != length) {
+                        throw new IOException(in + " changed while it was being compressed");
+                    }
+                    code.encode(map(source, FileChannel.MapMode.READ_ONLY, offset, length), bitStream);
+                }
+                bitStream.flush();
+                stats.stop(CodecStats.Phase.ENCODE, start);
+            }
+        }
+    }
+
+
+    /**
+     * Decompresses the given .huff file into the given output file.
+     *
+     * @param in the .huff file.
+     * @param out the file to write; replaced if it exists.
+     * @return the job's stats, if metrics are enabled.
+     * @throws IOException If cannot read/write files, or the data is invalid.
+     */
+    public CodecStats decompress(Path in, Path out) throws IOException {
+        CodecStats stats = CodecStats.begin(false);
+        decompress(in, out, stats);
+        return stats.end();
+    }
+
+
+    /**
+     * Decompresses the given .huff file into the given output file, as part of a job.
+     *
+     * @param in the .huff file.
+     * @param out the file to write; replaced if it exists.
+     * @param stats the job's stats.
+     * @throws IOException If cannot read/write files, or the data is invalid.
+     */
+    void decompress(Path in, Path out, CodecStats stats) throws IOException {
+        try (FileChannel source = FileChannel.open(in, StandardOpenOption.READ)) {
+            long time = stats.time();
+            ByteBuffer start = ByteBuffer.allocate(16);
+            while (start.hasRemaining() && source.read(start, start.position()) != -1) {
+                // keep reading; a short header is caught below
+            }
+            InputStream header = new ByteArrayInputStream(start.array(), 0, start.position());
+            BitReader bits;
+            TableDecoder decoder;
+            long length;
+            if (Huffman.readByte(header) == Huffman.MAGIC[0]) {
+                if (Huffman.readByte(header) != Huffman.MAGIC[1]) {
+                    throw new IOException("Not a .huff file");
+                }
+                int version = Huffman.readByte(header);
+                if (version == Huffman.VERSION_BLOCKS) {
+                    new BlockDecompressor().decompress(in, out, stats);
+                    return;
+                } else if (version == Huffman.VERSION_ADAPTIVE) {
+                    Huffman.decompress(in, out, stats);
+                    return;
+                } else if (version != Huffman.VERSION_CANONICAL) {
+                    throw new IOException("Unsupported .huff version " + version);
+                }
+                length = Huffman.readLength(header);
+                bits = new WindowReader(source, start.position() - header.available());
+                decoder = CanonicalCode.read(bits).newDecoder();
+            } else {
+                // a legacy file
+                bits = new WindowReader(source, 0);
+                Huffman tree = new Huffman(bits);
+                length = tree.getHead();
+                decoder = tree.newDecoder();
+            }
+            stats.stop(CodecStats.Phase.TREE, time);
+            stats.addBytesIn(source.size());
+
+            if (decoder == null) {
+                // too deep for table decoding
+                try (InputStream filein = new BufferedInputStream(Files.newInputStream(in));
+                     OutputStream fileout = new BufferedOutputStream(Files.newOutputStream(out))) {
+                    Huffman.decompress(filein, fileout, stats);
+                }
+                stats.addBytesOut(Files.size(out));
+                return;
+            }
+            stats.addBlock();
+            time = stats.time();
+            try (FileChannel target = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (long offset = 0; offset < length; offset += windowSize) {
+                    decoder.decode(bits, map(target, FileChannel.MapMode.READ_WRITE, offset, length));
+                }
+            }
+            stats.stop(CodecStats.Phase.DECODE, time);
+            stats.addBytesOut(length);
+        }
+    }
+
+
+    /**
+     * Maps the window of a file that starts at the given offset.
+     *
+     * @param channel the file.
+     * @param mode how to map it.
+     * @param offset where the window starts.
+     * @param end where the mapped part of the file ends.
+     * @return the window, up to {@link #windowSize} bytes long.
+     * @throws IOException If the file cannot be mapped.
+     */
+    private ByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long offset, long end)
+            throws IOException {
+        return channel.map(mode, offset, Math.min(windowSize, end - offset));
+    }
+
+
+    /**
+     * Reads a file's bits a mapped window at a time.
+     */
+    private class WindowReader extends BitReader {
+        private final FileChannel source;
+        private long next; // where the next window starts
+
+        WindowReader(FileChannel source, long offset) throws IOException {
+            super(map(source, FileChannel.MapMode.READ_ONLY, offset, source.size()));
+            this.source = source;
+            this.next = Math.min(offset + windowSize, source.size());
+        }
+
+        @Override
+        protected ByteBuffer nextBuffer() throws IOException {
+            long size = source.size();
+            if (next >= size) {
+                return null;
+            }
+            ByteBuffer window = map(source, FileChannel.MapMode.READ_ONLY, next, size);
+            next += window.limit();
+            return window;
+        }
+    }
+
+
+    /**
+     * Writes bytes into a file of a known size, a mapped window at a time.
+     */
+    private class WindowOutputStream extends OutputStream {
+        private final FileChannel target;
+        private final long size;
+        private long next; // where the next window starts
+        private ByteBuffer window = ByteBuffer.allocate(0);
+
+        WindowOutputStream(FileChannel target, long size) {
+            this.target = target;
+            this.size = size;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            nextWindow();
+            window.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                nextWindow();
+                int n = Math.min(len, window.remaining());
+                window.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * Maps the next window once the current one is full.
+         *
+         * @throws IOException If there is no room left in the file, or it cannot be mapped.
+         */
+        private void nextWindow() throws IOException {
+            if (window.hasRemaining()) {
+                return;
+            }
+            if (next >= size) {
+                throw new IOException("Output is longer than expected");
+            }
+            window = map(target, FileChannel.MapMode.READ_WRITE, next, size);
+            next += window.limit();
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package huffman;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Works out how large data would be once compressed, without encoding it.
+ *
+ * <p>The size of a canonical .huff file only depends on how many times each byte value
+ * occurs: the header holds the length and the code length table, and each byte then takes
+ * up exactly its code length in bits. The same goes for each block of a block container,
+ * counting the bytes of each interleaved sub-stream apart. One pass counting bytes into a
+ * {@link Histogram}, and for files longer than a block into counts for each sub-stream of
+ * each block, is therefore enough to give the exact size {@link Huffman#compress(Path, Path)}
+ * would write, without building any output. The estimate also gives the Shannon entropy of
+ * the data, the fewest bits any code for single bytes could average, to show how close the
+ * Huffman code comes.</p>
+ *
+ * <p>For very large files, {@link #estimate(Path, double)} counts only an evenly spread
+ * sample of the file and scales the counts up. The result is then an estimate in the usual
+ * sense, good when the file's contents are much the same throughout.</p>
+ *
+ * @author Jacob Gordon
+ */
+public class SizeEstimator {
+
+    /**
+     * Number of bytes in each sampled chunk of a file.
+     */
+    public static final int SAMPLE_CHUNK_SIZE = 1 << 16;
+
+    private SizeEstimator() {
+        // static methods only
+    }
+
+
+    /**
+     * Estimates the compressed size of the given file from a full pass over it.
+     *
+     * @param file the file.
+     * @return the exact compressed size.
+     * @throws IOException If the file cannot be read.
+     */
+    public static Estimate estimate(Path file) throws IOException {
+        return estimate(file, 1);
+    }
+
+
+    /**
+     * Estimates the compressed size of the given file from a sample of it.
+     *
+     * @param file the file.
+     * @param fraction how much of the file to read, from just above 0 to 1. The sample is
+     *     made of {@link #SAMPLE_CHUNK_SIZE} byte chunks spread evenly over the file, and
+     *     always holds at least one chunk.
+     * @return the estimate; exact if the whole file was read.
+     * @throws IOException If the file cannot be read.
+     */
+    public static Estimate estimate(Path file, double fraction) throws IOException {
+        if (!(fraction > 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("Fraction must be more than 0 and at most 1");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            long chunks = (length + SAMPLE_CHUNK_SIZE - 1) / SAMPLE_CHUNK_SIZE;
+            long sampled = Math.max(1, (long) Math.ceil(chunks * fraction));
+            Histogram histogram = new Histogram();
+            if (sampled >= chunks) {
+                return estimate(channel, length);
+            }
+
+            ByteBuffer chunk = ByteBuffer.allocate(Huffman.FILE_CHUNK_SIZE);
+            for (long i = 0; i < sampled; i++) {
+                long position = (i * chunks / sampled) * SAMPLE_CHUNK_SIZE;
+                chunk.clear().limit(SAMPLE_CHUNK_SIZE);
+                int n;
+                while (chunk.hasRemaining() && (n = channel.read(chunk, position)) != -1) {
+                    position += n;
+                }
+                histogram.add(chunk.array(), 0, chunk.position());
+            }
+
+            // scale the sample up to the whole file, keeping every value seen
+            long[] counts = histogram.getCounts();
+            double scale = (double) length / Math.max(1, histogram.getTotal());
+            for (int s = 0; s < 256; s++) {
+                if (counts[s] > 0) {
+                    counts[s] = Math.max(1, Math.round(counts[s] * scale));
+                }
+            }
+            return estimate(counts, length, true);
+        }
+    }
+
+
+    /**
+     * Works out the exact compressed size of a file from a full pass over it, a block at a
+     * time.
+     *
+     * @param channel the file.
+     * @param length the file's length.
+     * @return the exact compressed size.
+     * @throws IOException If the file cannot be read.
+     */
+    private static Estimate estimate(FileChannel channel, long length) throws IOException {
+        int blockSize = BlockCompressor.DEFAULT_BLOCK_SIZE;
+        ByteBuffer block = ByteBuffer.allocate((int) Math.min(blockSize, Math.max(1, length)));
+        byte[] bytes = block.array();
+        Histogram histogram = new Histogram();
+        long records = 0;
+        long blocks = 0;
+        long position = 0;
+        while (position < length) {
+            block.clear();
+            while (block.hasRemaining() && channel.read(block, position + block.position()) != -1) {
+                // keep reading until the block is full
+            }
+            int read = block.position();
+            if (read == 0) {
+                break;
+            }
+            histogram.add(bytes, 0, read);
+            if (length > blockSize) {
+                long[][] streams = new long[BlockCompressor.INTERLEAVED_STREAMS][256];
+                for (int i = 0; i < read; i++) {
+                    streams[i % BlockCompressor.INTERLEAVED_STREAMS][bytes[i] & 0xFF]++;
+                }
+                records += BlockCompressor.recordSize(streams, read, CanonicalCode.MAX_CODE_LENGTH);
+                blocks++;
+            }
+            position += read;
+        }
+        if (length <= blockSize) {
+            return estimate(histogram.getCounts(), histogram.getTotal(), false);
+        }
+        return estimate(histogram.getCounts(), histogram.getTotal(), false,
+                BlockCompressor.containerSize(records, blocks, blockSize));
+    }
+
+
+    /**
+     * Works out the compressed size of data with the given byte counts.
+     *
+     * @param histogram the counts of the data.
+     * @return the exact compressed size for data of up to one block; for longer data, the
+     *     size if every block had the same mix of byte values.
+     */
+    public static Estimate estimate(Histogram histogram) {
+        return estimate(histogram.getCounts(), histogram.getTotal(), false);
+    }
+
+
+    /**
+     * Works out the compressed size of data with the given byte counts.
+     *
+     * @param counts the number of times each byte value occurs.
+     * @param length the length of the data.
+     * @param sampled whether the counts were scaled up from a sample.
+     * @return the estimate.
+     */
+    private static Estimate estimate(long[] counts, long length, boolean sampled) {
+        long blockSize = BlockCompressor.DEFAULT_BLOCK_SIZE;
+        if (length <= blockSize) {
+            return estimate(counts, length, sampled, -1);
+        }
+
+        // blocks with the same mix of byte values as the whole
+        long full = length / blockSize;
+        long records = full * spreadRecord(counts, length, (int) blockSize);
+        long blocks = full;
+        if (length % blockSize != 0) {
+            records += spreadRecord(counts, length, (int) (length % blockSize));
+            blocks++;
+        }
+        return estimate(counts, length, sampled,
+                BlockCompressor.containerSize(records, blocks, BlockCompressor.DEFAULT_BLOCK_SIZE));
+    }
+
+
+    /**
+     * Works out the size of one block with its share of the given counts, dealt out evenly
+     * over its sub-streams.
+     *
+     * @param counts the number of times each byte value occurs in the data.
+     * @param length the length of the data.
+     * @param size the number of bytes in the block.
+     * @return the number of bytes the block takes up in a container.
+     */
+    private static long spreadRecord(long[] counts, long length, int size) {
+        int streams = BlockCompressor.INTERLEAVED_STREAMS;
+        long[][] shares = new long[streams][256];
+        for (int s = 0; s < 256; s++) {
+            long share = counts[s] == 0 ? 0 : Math.max(1, Math.round((double) counts[s] * size / length));
+            for (int i = 0; i < streams; i++) {
+                shares[i][s] = share / streams + (i < share % streams ? 1 : 0);
+            }
+        }
+        return BlockCompressor.recordSize(shares, size, CanonicalCode.MAX_CODE_LENGTH);
+    }
+
+
+    /**
+     * Works out the compressed size of data with the given byte counts.
+     *
+     * @param counts the number of times each byte value occurs.
+     * @param length the length of the data.
+     * @param sampled whether the counts were scaled up from a sample.
+     * @param containerSize the size of the block container written for data longer than a
+     *     block, or -1 for data of up to a block.
+     * @return the estimate.
+     */
+    private static Estimate estimate(long[] counts, long length, boolean sampled, long containerSize) {
+        CanonicalCode code = new Huffman(counts).getCanonicalCode();
+        int headerSize = Huffman.MAGIC.length + 1 + Huffman.lengthSize(length);
+        long total = 0;
+        for (int s = 0; s < 256; s++) {
+            total += counts[s];
+        }
+        double entropyBits = 0;
+        for (int s = 0; s < 256; s++) {
+            if (counts[s] > 0) {
+                entropyBits += counts[s] * (Math.log((double) total / counts[s]) / Math.log(2));
+            }
+        }
+        long storedSize = BlockCompressor.storedSize(length, BlockCompressor.DEFAULT_BLOCK_SIZE);
+        long encodedSize = Huffman.canonicalSize(length, code.getEncodedBits(counts));
+        boolean canonical = containerSize < 0 && Huffman.isCanonical(encodedSize, length);
+        long compressedSize = canonical ? encodedSize : containerSize < 0 ? storedSize : containerSize;
+        return new Estimate(length, headerSize, code.getTableBits(),
+                code.getEncodedBits(counts) - code.getTableBits(), entropyBits, storedSize, canonical,
+                compressedSize, sampled);
+    }
+
+
+    /**
+     * How large some data would be once compressed.
+     */
+    public static class Estimate {
+        private final long length;
+        private final int headerSize;
+        private final int tableBits;
+        private final long dataBits;
+        private final double entropyBits;
+        private final long storedSize;
+        private final boolean canonical;
+        private final long compressedSize;
+        private final boolean sampled;
+
+        Estimate(long length, int headerSize, int tableBits, long dataBits, double entropyBits,
+                 long storedSize, boolean canonical, long compressedSize, boolean sampled) {
+            this.length = length;
+            this.headerSize = headerSize;
+            this.tableBits = tableBits;
+            this.dataBits = dataBits;
+            this.entropyBits = entropyBits;
+            this.storedSize = storedSize;
+            this.canonical = canonical;
+            this.compressedSize = compressedSize;
+            this.sampled = sampled;
+        }
+
+        /**
+         * Returns the length of the data.
+         *
+         * @return the number of bytes before compression.
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * Returns the size of the canonical header in front of the code length table: the
+         * magic bytes, the version and the length.
+         *
+         * @return the number of bytes.
+         */
+        public int getHeaderSize() {
+            return headerSize;
+        }
+
+        /**
+         * Returns the size of the code length table.
+         *
+         * @return the number of bits.
+         */
+        public int getTableBits() {
+            return tableBits;
+        }
+
+        /**
+         * Returns the size of the encoded data, without the header or table.
+         *
+         * @return the number of bits.
+         */
+        public long getDataBits() {
+            return dataBits;
+        }
+
+        /**
+         * Returns the Shannon entropy of the data: the fewest bits any code that gives each
+         * byte value its own codeword could encode it in.
+         *
+         * @return the number of bits.
+         */
+        public double getEntropyBits() {
+            return entropyBits;
+        }
+
+        /**
+         * Returns the size of a canonical .huff file holding the data.
+         *
+         * @return the number of bytes, header and table included.
+         */
+        public long getEncodedSize() {
+            return headerSize + (tableBits + dataBits + 7) / 8;
+        }
+
+        /**
+         * Returns the size a canonical .huff file would have if the data were encoded at its
+         * entropy, header and table included; no code for single bytes can do better.
+         *
+         * @return the number of bytes.
+         */
+        public long getEntropySize() {
+            return headerSize + (long) Math.ceil((tableBits + entropyBits) / 8);
+        }
+
+        /**
+         * Returns the size of a block container that stores all of the data as it is.
+         *
+         * @return the number of bytes.
+         */
+        public long getStoredSize() {
+            return storedSize;
+        }
+
+        /**
+         * Returns whether {@link Huffman#compress(Path, Path)} would write the data as a
+         * canonical .huff file of {@link #getEncodedSize()} bytes. If not, it writes a block
+         * container: of stored blocks when encoding saves too little, or of blocks with
+         * their own codes when the data is longer than a block.
+         *
+         * @return true if the data would be written as a canonical .huff file.
+         */
+        public boolean isWorthEncoding() {
+            return canonical;
+        }
+
+        /**
+         * Returns the size {@link Huffman#compress(Path, Path)} would write.
+         *
+         * @return the number of bytes; exact unless the estimate was made from a sample.
+         */
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        /**
+         * Returns whether this estimate was made from a sample of the data.
+         *
+         * @return true if the counts were scaled up from a sample.
+         */
+        public boolean isSampled() {
+            return sampled;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s%d -> %d bytes (%.1f%%), entropy bound %d bytes",
+                    sampled ? "~" : "", length, getCompressedSize(),
+                    length == 0 ? 100.0 : getCompressedSize() * 100.0 / length, getEntropySize());
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package huffman;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Decodes legacy single-stream .huff files on several threads at once.
+ *
+ * <p>A legacy file is one unbroken bit stream, so nothing in it says where a code starts
+ * other than the end of the code before it. This decoder splits the stream into segments
+ * of {@link #SEGMENT_SIZE} bytes, by default, and starts decoding each one right at its first bit, as if
+ * a code started there. That guess is usually wrong, but Huffman codes resynchronize on
+ * their own: after a few codes, a decoder that started at the wrong bit lands on a true code
+ * boundary, and from then on it decodes exactly what a decoder that started at the right bit
+ * would.</p>
+ *
+ * <p>Segments are then stitched together in order. The end of one segment gives the true
+ * start of the first code in the next, and from there the next segment is decoded again
+ * one code at a time only until it meets one of the code boundaries its speculative decoder
+ * recorded; the rest of that decoder's output is used as is. A segment that never
+ * resynchronized within its first {@link #SYNC_WINDOW} codes is simply decoded again in
+ * full. Either way, the output is identical to decoding the file from start to end.</p>
+ *
+ * @author Jacob Gordon
+ */
+public class SpeculativeDecoder {
+
+    /**
+     * Number of compressed bytes in each segment.
+     */
+    public static final int SEGMENT_SIZE = 1 << 18;
+
+    /**
+     * Number of code boundaries recorded at the start of each segment, to stitch it to
+     * the segment before.
+     */
+    static final int SYNC_WINDOW = 1 << 12;
+
+    /**
+     * Number of threads used to decode segments.
+     */
+    private final int parallelism;
+
+    /**
+     * Number of compressed bytes in each segment.
+     */
+    private final int segmentSize;
+
+
+    /**
+     * Creates a speculative decoder using every available core.
+     */
+    public SpeculativeDecoder() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+
+    /**
+     * Creates a speculative decoder.
+     *
+     * @param parallelism the number of threads used to decode segments.
+     */
+    public SpeculativeDecoder(int parallelism) {
+        this(parallelism, SEGMENT_SIZE);
+    }
+
+
+    /**
+     * Creates a speculative decoder that splits the stream into segments of the given size.
+     *
+     * @param parallelism the number of threads used to decode segments.
+     * @param segmentSize the number of compressed bytes in each segment.
+     */
+    SpeculativeDecoder(int parallelism, int segmentSize) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        if (segmentSize < 1) {
+            throw new IllegalArgumentException("Segment size must be at least 1");
+        }
+        this.parallelism = parallelism;
+        this.segmentSize = segmentSize;
+    }
+
+
+    /**
+     * Decompresses the given legacy .huff file into the given output file.
+     *
+     * @param in the .huff file, in the legacy format.
+     * @param out the file to write; replaced if it exists.
+     * @throws IOException If cannot read/write files, or the data is invalid.
+     */
+    public void decompress(Path in, Path out) throws IOException {
+        try (FileChannel channel = FileChannel.open(in, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                // too big to map as one buffer: decode it in one pass
+                try (InputStream filein = new BufferedInputStream(Files.newInputStream(in));
+                     OutputStream fileout = new BufferedOutputStream(Files.newOutputStream(out))) {
+                    Huffman.decompress(filein, fileout, CodecStats.NONE);
+                }
+                return;
+            }
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            BitReader header = new BitReader(data);
+            Huffman tree = new Huffman(header);
+            TableDecoder decoder = tree.newDecoder();
+            try (OutputStream fileout = new BufferedOutputStream(Files.newOutputStream(out))) {
+                if (decoder == null) {
+                    // too deep for table decoding
+                    tree.decode(tree.getHead(), header, fileout);
+                } else {
+                    decode(data, header.getBitPosition(), tree.getHead(), decoder, fileout);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Decodes the given number of bytes from the bit stream that starts at the given bit
+     * of the buffer, writing them to the given output stream.
+     *
+     * @param data the whole .huff file.
+     * @param start the bit where the first code starts.
+     * @param count the number of bytes to decode.
+     * @param decoder the decoder for the file's tree.
+     * @param out the OutputStream.
+     * @throws IOException If there are any write errors, or the data is invalid.
+     */
+    void decode(final ByteBuffer data, long start, long count, final TableDecoder decoder,
+                OutputStream out) throws IOException {
+        long end = data.limit() * 8L;
+        long segmentBits = segmentSize * 8L;
+        long position = start; // a true code boundary
+        long remaining = count;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            while (remaining > 0) {
+                if (position >= end) {
+                    throw new EOFException("Unexpected end of .huff data");
+                }
+                // decode the next few segments speculatively
+                final int limit = (int) Math.min(remaining, segmentBits);
+                List<ForkJoinTask<Segment>> round = new ArrayList<ForkJoinTask<Segment>>();
+                for (int j = 0; j < 2 * parallelism; j++) {
+                    final long from = position + j * segmentBits;
+                    if (j > 0 && from >= end) {
+                        break;
+                    }
+                    round.add(pool.submit(() -> Segment.decode(data, from, from + segmentBits, limit, decoder)));
+                }
+
+                // then stitch them together
+                for (int j = 0; j < round.size() && remaining > 0; j++) {
+                    Segment segment = BlockCompressor.await(round.get(j));
+                    if (segment.from != position) {
+                        segment = segment.stitch(data, position, (int) Math.min(remaining, Integer.MAX_VALUE),
+                                decoder);
+                    }
+                    int n = (int) Math.min(segment.count - segment.first, remaining);
+                    out.write(segment.symbols, segment.first, n);
+                    remaining -= n;
+                    position = segment.exit;
+                }
+                for (ForkJoinTask<Segment> task : round) {
+                    task.cancel(false);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Returns a reader positioned at the given bit of the buffer.
+     *
+     * @param data the buffer.
+     * @param bit the bit to start at.
+     * @return the reader; its bit positions count from the start of the byte holding the bit.
+     * @throws IOException never, since the reader reads from memory.
+     */
+    private static BitReader readerAt(ByteBuffer data, long bit) throws IOException {
+        ByteBuffer view = data.duplicate();
+        view.position((int) Math.min(bit >>> 3, data.limit()));
+        BitReader reader = new BitReader(view);
+        reader.skipBits((int) (bit & 7));
+        return reader;
+    }
+
+
+    /**
+     * The decoded contents of one segment.
+     */
+    static class Segment {
+
+        /**
+         * The bit decoding started at.
+         */
+        final long from;
+
+        /**
+         * The bit after the last one in the segment.
+         */
+        final long to;
+
+        /**
+         * The decoded bytes.
+         */
+        byte[] symbols;
+
+        /**
+         * Index in symbols of the first byte that is part of the true output.
+         */
+        int first;
+
+        /**
+         * Number of decoded bytes.
+         */
+        int count;
+
+        /**
+         * Offsets from {@link #from} of the bits where the first codes started.
+         */
+        int[] starts;
+
+        /**
+         * Number of entries in starts.
+         */
+        int recorded;
+
+        /**
+         * The bit after the last code decoded; the first code boundary at or past {@link #to}.
+         */
+        long exit;
+
+
+        Segment(long from, long to, int limit) {
+            this.from = from;
+            this.to = to;
+            this.symbols = new byte[limit];
+            this.starts = new int[Math.min(limit, SYNC_WINDOW)];
+        }
+
+
+        /**
+         * Decodes a segment as if a code started at its first bit.
+         *
+         * @param data the whole .huff file.
+         * @param from the bit to start at.
+         * @param to the bit after the end of the segment.
+         * @param limit the most bytes to decode.
+         * @param decoder the decoder for the file's tree.
+         * @return the decoded segment.
+         * @throws IOException never, since the reader reads from memory.
+         */
+        static Segment decode(ByteBuffer data, long from, long to, int limit, TableDecoder decoder)
+                throws IOException {
+            Segment segment = new Segment(from, to, limit);
+            BitReader reader = readerAt(data, from);
+            long base = from & ~7L;
+            long position = from;
+            try {
+                while (position < to && segment.count < limit) {
+                    if (segment.recorded < segment.starts.length) {
+                        segment.starts[segment.recorded++] = (int) (position - from);
+                    }
+                    segment.symbols[segment.count++] = (byte) decoder.decodeSymbol(reader);
+                    position = base + reader.getBitPosition();
+                }
+            } catch (IOException e) {
+                // a bit pattern no code starts with: this guess is no use for stitching
+                segment.recorded = 0;
+            }
+            segment.exit = position;
+            return segment;
+        }
+
+
+        /**
+         * Joins this segment to the true output before it. Decodes codes one at a time from
+         * the given true code boundary until reaching a boundary this segment's decoder also
+         * found, then keeps the rest of this segment's output.
+         *
+         * @param data the whole .huff file.
+         * @param boundary the bit where the first code after the previous segment starts.
+         * @param limit the most bytes to decode.
+         * @param decoder the decoder for the file's tree.
+         * @return the segment holding the true output from the boundary on.
+         * @throws IOException If the data is invalid.
+         */
+        Segment stitch(ByteBuffer data, long boundary, int limit, TableDecoder decoder) throws IOException {
+            Segment caughtUp = new Segment(boundary, to, Math.min(limit, 64));
+            BitReader reader = readerAt(data, boundary);
+            long base = boundary & ~7L;
+            long position = boundary;
+            int p = 0;
+            while (position < to && caughtUp.count < limit) {
+                while (p < recorded && from + starts[p] < position) {
+                    p++;
+                }
+                if (p < recorded && from + starts[p] == position) {
+                    // back in step with this segment's decoder
+                    int n = Math.min(count - p, limit - caughtUp.count);
+                    if (caughtUp.count == 0) {
+                        first = p;
+                        count = p + n;
+                        return this;
+                    }
+                    caughtUp.append(symbols, p, n);
+                    caughtUp.exit = exit;
+                    return caughtUp;
+                }
+                caughtUp.append((byte) decoder.decodeSymbol(reader));
+                position = base + reader.getBitPosition();
+            }
+            caughtUp.exit = position;
+            return caughtUp;
+        }
+
+
+        /**
+         * Adds one decoded byte.
+         *
+         * @param b the byte.
+         */
+        private void append(byte b) {
+            if (count == symbols.length) {
+                symbols = Arrays.copyOf(symbols, Math.max(16, count * 2));
+            }
+            symbols[count++] = b;
+        }
+
+
+        /**
+         * Adds decoded bytes.
+         *
+         * @param b the array holding the bytes.
+         * @param off where they start.
+         * @param len how many to add.
+         */
+        private void append(byte[] b, int off, int len) {
+            if (count + len > symbols.length) {
+                symbols = Arrays.copyOf(symbols, count + len);
+            }
+            System.arraycopy(b, off, symbols, count, len);
+            count += len;
+        }
+    }
+}
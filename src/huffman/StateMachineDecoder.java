@@ -0,0 +1,121 @@
+package huffman;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Decodes the paths of any Huffman tree, however deep, a whole input byte at a time.
+ *
+ * <p>The decoder is a finite state machine whose states are the tree's internal nodes:
+ * being in a state means the bits read so far have led from the root down to that node.
+ * For every state and every possible next byte of input, a table holds the node those
+ * eight bits lead to and the byte values of the leaves reached on the way, at most eight
+ * since every path is at least one bit long. Decoding is then one table lookup per eight
+ * bits of input instead of one step per bit.</p>
+ *
+ * <p>{@link Huffman#decode(long, BitReader, OutputStream)} uses it for legacy files, whose
+ * trees are neither canonical nor length-limited; it handles trees too deep for a
+ * {@link TableDecoder}, and on typical trees it is faster too, since short codes come out
+ * several to a lookup. The format on disk does not change.</p>
+ *
+ * @author Jacob Gordon
+ */
+public class StateMachineDecoder {
+
+    /**
+     * Most byte values one input byte can decode to.
+     */
+    private static final int MAX_EMITTED = 8;
+
+    /**
+     * For each state and input byte, at index state * 256 + byte: the state reached,
+     * shifted left 4 bits, plus the number of byte values decoded on the way.
+     */
+    private final int[] transitions;
+
+    /**
+     * The byte values decoded for each state and input byte, {@link #MAX_EMITTED} slots
+     * per transition.
+     */
+    private final byte[] emitted;
+
+
+    /**
+     * Builds the transition table for a tree kept in parallel arrays.
+     *
+     * @param left the left child of each node, or -1 for a leaf.
+     * @param right the right child of each node, or -1 for a leaf.
+     * @param symbol the byte value of each leaf.
+     * @param nodes the number of nodes in the arrays.
+     * @param root the number of the root node, which must not be a leaf.
+     */
+    StateMachineDecoder(short[] left, short[] right, byte[] symbol, int nodes, int root) {
+        if (left[root] < 0) {
+            throw new IllegalArgumentException("Tree has no internal nodes");
+        }
+        // number the internal nodes as states, the root first
+        int[] state = new int[nodes];
+        int[] node = new int[nodes];
+        int states = 0;
+        state[root] = states;
+        node[states++] = root;
+        for (int i = 0; i < nodes; i++) {
+            if (i != root && left[i] >= 0) {
+                state[i] = states;
+                node[states++] = i;
+            }
+        }
+
+        transitions = new int[states << 8];
+        emitted = new byte[(states << 8) * MAX_EMITTED];
+        for (int s = 0; s < states; s++) {
+            for (int b = 0; b < 256; b++) {
+                int t = (s << 8) | b;
+                int count = 0;
+                int at = node[s];
+                for (int bit = 7; bit >= 0; bit--) {
+                    at = ((b >>> bit) & 1) != 0 ? right[at] : left[at];
+                    if (left[at] < 0) {
+                        // reached a leaf: emit it and start again from the root
+                        emitted[t * MAX_EMITTED + count++] = symbol[at];
+                        at = root;
+                    }
+                }
+                transitions[t] = (state[at] << 4) | count;
+            }
+        }
+    }
+
+
+    /**
+     * Reads bits from the given reader, decoding the given number of byte values before
+     * stopping. Writes decoded bytes to the given output stream.
+     * <p>Input is read a byte at a time, so up to seven bits after the last code may be
+     * consumed from the reader as well.</p>
+     *
+     * @param count the number of values to decode.
+     * @param in the reader to read bits from, at the start of a path.
+     * @param out where to write decoded byte values.
+     * @throws IOException if can't read/write from/to streams.
+     */
+    public void decode(long count, BitReader in, OutputStream out) throws IOException {
+        byte[] buf = new byte[8192 + MAX_EMITTED];
+        int n = 0;
+        int state = 0;
+        long remaining = count;
+        while (remaining > 0) {
+            int t = (state << 8) | in.readBits(8);
+            int transition = transitions[t];
+            int take = (int) Math.min(transition & 0xf, remaining);
+            System.arraycopy(emitted, t * MAX_EMITTED, buf, n, take);
+            n += take;
+            remaining -= take;
+            state = transition >>> 4;
+            if (n >= 8192) {
+                out.write(buf, 0, n);
+                n = 0;
+            }
+        }
+        out.write(buf, 0, n);
+    }
+}
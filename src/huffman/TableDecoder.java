@@ -0,0 +1,299 @@
+package huffman;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes Huffman codes a table lookup at a time instead of a bit at a time.
+ *
+ * <p>The decoder peeks the next {@link #PRIMARY_BITS} bits from a {@link BitReader} and
+ * uses them to index a primary table. Every code no longer than that is resolved by that
+ * one lookup: the entry holds the decoded byte and how many of the peeked bits its code
+ * actually used. Longer codes land on an entry that links to a smaller secondary table,
+ * which is indexed by the bits that follow, and so on until a symbol is reached.</p>
+ *
+ * <p>All tables live in a single int array. Each entry packs, from low to high bits:
+ * <ul>
+ * <li>5 bits: the number of bits consumed by a symbol, or the size in bits of a linked table
+ * <li>1 bit: set if the entry links to another table
+ * <li>the rest: the decoded byte value, or the offset of the linked table
+ * </ul>
+ * An entry of 0 corresponds to a bit pattern that no code starts with.</p>
+ *
+ * @author Jacob Gordon
+ */
+public class TableDecoder {
+
+    /**
+     * Number of bits used to index the primary table.
+     */
+    public static final int PRIMARY_BITS = 11;
+
+    /**
+     * Largest number of bits used to index a secondary table.
+     */
+    public static final int SECONDARY_BITS = 8;
+
+    /**
+     * Longest code this decoder can be built for.
+     */
+    public static final int MAX_CODE_LENGTH = 32;
+
+    private static final int LENGTH_MASK = 0x1f;
+    private static final int LINK = 0x20;
+    private static final int VALUE_SHIFT = 8;
+
+    /**
+     * Every table, primary first.
+     */
+    private int[] table;
+
+    /**
+     * Number of table slots handed out so far.
+     */
+    private int size;
+
+    /**
+     * Number of bits used to index the primary table; never more than the longest code.
+     */
+    private final int primaryBits;
+
+
+    /**
+     * Builds the decoding tables for the given prefix-free code.
+     *
+     * @param codes the code of each byte value, right-aligned, indexed by the byte's
+     *     unsigned value.
+     * @param lengths the length in bits of each code, or 0 if the byte value has no code.
+     */
+    public TableDecoder(int[] codes, byte[] lengths) {
+        List<Integer> symbols = new ArrayList<Integer>();
+        int maxLength = 0;
+        for (int s = 0; s < lengths.length; s++) {
+            if (lengths[s] != 0) {
+                if (lengths[s] < 0 || lengths[s] > MAX_CODE_LENGTH) {
+                    throw new IllegalArgumentException("Unsupported code length " + lengths[s]
+                            + " for byte " + s);
+                }
+                symbols.add(s);
+                maxLength = Math.max(maxLength, lengths[s]);
+            }
+        }
+        if (symbols.isEmpty()) {
+            throw new IllegalArgumentException("No codes to decode");
+        }
+        this.primaryBits = Math.min(PRIMARY_BITS, maxLength);
+        this.table = new int[1 << primaryBits];
+        this.size = table.length;
+        fill(0, 0, primaryBits, symbols, codes, lengths);
+    }
+
+
+    /**
+     * Fills in one table. Codes that end within the table's bits get an entry in every
+     * slot they are a prefix of; longer codes are grouped by their next bits and each group
+     * gets its own linked table.
+     *
+     * @param offset where the table starts.
+     * @param prefixLength number of code bits already consumed before this table.
+     * @param bits number of bits used to index this table.
+     * @param symbols the byte values whose codes pass through this table.
+     * @param codes the code of each byte value.
+     * @param lengths the length of each code.
+     */
+    private void fill(int offset, int prefixLength, int bits, List<Integer> symbols,
+                      int[] codes, byte[] lengths) {
+        Map<Integer, List<Integer>> longer = new LinkedHashMap<Integer, List<Integer>>();
+        for (int s : symbols) {
+            int rest = lengths[s] - prefixLength;
+            int suffix = (int) (codes[s] & ((1L << rest) - 1));
+            if (rest <= bits) {
+                int first = offset + (suffix << (bits - rest));
+                int entry = (s << VALUE_SHIFT) | rest;
+                Arrays.fill(table, first, first + (1 << (bits - rest)), entry);
+            } else {
+                int index = suffix >>> (rest - bits);
+                List<Integer> group = longer.get(index);
+                if (group == null) {
+                    group = new ArrayList<Integer>();
+                    longer.put(index, group);
+                }
+                group.add(s);
+            }
+        }
+        for (Map.Entry<Integer, List<Integer>> group : longer.entrySet()) {
+            int deepest = 0;
+            for (int s : group.getValue()) {
+                deepest = Math.max(deepest, lengths[s] - prefixLength - bits);
+            }
+            int subBits = Math.min(SECONDARY_BITS, deepest);
+            int subOffset = allocate(1 << subBits);
+            table[offset + group.getKey()] = (subOffset << VALUE_SHIFT) | LINK | subBits;
+            fill(subOffset, prefixLength + bits, subBits, group.getValue(), codes, lengths);
+        }
+    }
+
+
+    /**
+     * Reserves room for another table at the end of the table array.
+     *
+     * @param slots the number of entries in the new table.
+     * @return the offset of the new table.
+     */
+    private int allocate(int slots) {
+        int offset = size;
+        size += slots;
+        if (size > table.length) {
+            table = Arrays.copyOf(table, Math.max(size, table.length * 2));
+        }
+        return offset;
+    }
+
+
+    /**
+     * Reads a single code from the given reader.
+     *
+     * @param in the reader, positioned at the start of a code.
+     * @return the decoded byte value, from 0 to 255.
+     * @throws IOException if the bits do not form a code, or the reader fails.
+     */
+    public int decodeSymbol(BitReader in) throws IOException {
+        int bits = primaryBits;
+        int entry = table[in.peekBits(bits)];
+        while ((entry & LINK) != 0) {
+            in.skipBits(bits);
+            bits = entry & LENGTH_MASK;
+            entry = table[(entry >>> VALUE_SHIFT) + in.peekBits(bits)];
+        }
+        int length = entry & LENGTH_MASK;
+        if (length == 0) {
+            throw new IOException("Invalid Huffman code in input");
+        }
+        in.skipBits(length);
+        return entry >>> VALUE_SHIFT;
+    }
+
+
+    /**
+     * Reads bits from the given reader, decoding byte values into the given array.
+     *
+     * @param in the reader to read bits from.
+     * @param dst where to put decoded byte values.
+     * @param off index in dst of the first value to decode.
+     * @param len the number of values to decode.
+     * @throws IOException if the bits do not form codes, or the reader fails.
+     */
+    public void decode(BitReader in, byte[] dst, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            dst[i] = (byte) decodeSymbol(in);
+        }
+    }
+
+
+    /**
+     * Reads bits from several interleaved streams, decoding byte values into the given
+     * array: value off + i comes from reader i % in.length. With four readers, the four
+     * streams are decoded side by side in one loop; none of them waits on the others' bit
+     * positions, so their table lookups can overlap.
+     *
+     * @param in the reader for each stream.
+     * @param dst where to put decoded byte values.
+     * @param off index in dst of the first value to decode.
+     * @param len the number of values to decode.
+     * @throws IOException if the bits do not form codes, or a reader fails.
+     */
+    public void decode(BitReader[] in, byte[] dst, int off, int len) throws IOException {
+        int end = off + len;
+        int i = off;
+        if (in.length == 4) {
+            BitReader in0 = in[0];
+            BitReader in1 = in[1];
+            BitReader in2 = in[2];
+            BitReader in3 = in[3];
+            for (; i + 3 < end; i += 4) {
+                dst[i] = (byte) decodeSymbol(in0);
+                dst[i + 1] = (byte) decodeSymbol(in1);
+                dst[i + 2] = (byte) decodeSymbol(in2);
+                dst[i + 3] = (byte) decodeSymbol(in3);
+            }
+        }
+        for (; i < end; i++) {
+            dst[i] = (byte) decodeSymbol(in[(i - off) % in.length]);
+        }
+    }
+
+
+    /**
+     * Reads bits from the given reader, decoding byte values until the given buffer
+     * is full.
+     *
+     * @param in the reader to read bits from.
+     * @param dst where to put decoded byte values, from its position to its limit.
+     * @throws IOException if the bits do not form codes, or the reader fails.
+     */
+    public void decode(BitReader in, ByteBuffer dst) throws IOException {
+        while (dst.hasRemaining()) {
+            dst.put((byte) decodeSymbol(in));
+        }
+    }
+
+
+    /**
+     * Reads bits from several interleaved streams, decoding byte values until the given
+     * buffer is full: the value at position + i comes from reader i % in.length.
+     *
+     * @param in the reader for each stream.
+     * @param dst where to put decoded byte values, from its position to its limit.
+     * @throws IOException if the bits do not form codes, or a reader fails.
+     */
+    public void decode(BitReader[] in, ByteBuffer dst) throws IOException {
+        int start = dst.position();
+        int end = dst.limit();
+        int i = start;
+        if (in.length == 4) {
+            BitReader in0 = in[0];
+            BitReader in1 = in[1];
+            BitReader in2 = in[2];
+            BitReader in3 = in[3];
+            for (; i + 3 < end; i += 4) {
+                dst.put(i, (byte) decodeSymbol(in0));
+                dst.put(i + 1, (byte) decodeSymbol(in1));
+                dst.put(i + 2, (byte) decodeSymbol(in2));
+                dst.put(i + 3, (byte) decodeSymbol(in3));
+            }
+        }
+        for (; i < end; i++) {
+            dst.put(i, (byte) decodeSymbol(in[(i - start) % in.length]));
+        }
+        dst.position(end);
+    }
+
+
+    /**
+     * Reads bits from the given reader, decoding the given number of byte values before
+     * stopping. Writes decoded bytes to the given output stream.
+     *
+     * @param count the number of values to decode.
+     * @param in the reader to read bits from.
+     * @param out where to write decoded byte values.
+     * @throws IOException if can't read/write from/to streams.
+     */
+    public void decode(long count, BitReader in, OutputStream out) throws IOException {
+        byte[] buf = new byte[8192];
+        int n = 0;
+        for (long c = 0; c < count; c++) {
+            buf[n++] = (byte) decodeSymbol(in);
+            if (n == buf.length) {
+                out.write(buf, 0, n);
+                n = 0;
+            }
+        }
+        out.write(buf, 0, n);
+    }
+}
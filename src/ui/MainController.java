@@ -1,5 +1,6 @@
 package ui;
 
+import huffman.BlockCompressor;
 import huffman.Huffman;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
@@ -28,6 +29,7 @@ import java.awt.*;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.file.Paths;
 
 /**
  * @author Jacob Gordon
@@ -220,7 +222,7 @@ public class MainController {
                             try {
                                 if (readyCompress) {
                                     String out = dir + "/" + fileNameOut;
-                                    Huffman.compress(file.getAbsolutePath(), out);
+                                    new BlockCompressor().compress(file.toPath(), Paths.get(out + Huffman.HUFF_EXT));
                                     long l = file.length();
                                     long l2 = new File(new StringBuilder(out).append(".huff").toString()).length();
                                     long p = l / l2;